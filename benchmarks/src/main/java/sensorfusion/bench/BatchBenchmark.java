@@ -0,0 +1,64 @@
+package sensorfusion.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BatchFusion over blocks of log.dat samples, reported per sample. The vector kernels are only available when the
+ * module was built with the vector profile (JDK 16+); otherwise that parameter fails in setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    static final String VECTOR_KERNELS = "VectorBatchKernels";
+    private static final int BLOCK_SIZE = 1024;
+
+    @Param({"ScalarBatchKernels", VECTOR_KERNELS})
+    String kernels;
+
+    private Object fusion;
+    private Object block;
+
+    @Setup
+    public void setup() throws Throwable {
+        Object instance = Hooks.newInstance(kernels);
+        if (instance == null) {
+            throw new IllegalStateException(kernels + " is not available in this build");
+        }
+        fusion = (Object) Hooks.NEW_BATCH_FUSION.invokeExact(instance);
+        block = (Object) Hooks.NEW_SENSOR_BLOCK.invokeExact(BLOCK_SIZE);
+
+        SampleLog log = SampleLog.load();
+        Object parser = (Object) Hooks.NEW_LINE_PARSER.invokeExact();
+        Object data = (Object) Hooks.NEW_SENSOR_SINGLE_DATA.invokeExact();
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            int line = i % log.size;
+            Object parsed = (Object) Hooks.PARSE.invokeExact(parser, (Object) log.buffer, log.starts[line],
+                    log.ends[line], data);
+            Hooks.BLOCK_ADD.invokeExact(block, data);
+        }
+    }
+
+    // The input columns are left untouched by process, so the same block is fused over and over.
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_SIZE)
+    public void process() throws Throwable {
+        Hooks.BATCH_PROCESS.invokeExact(fusion, block);
+    }
+}
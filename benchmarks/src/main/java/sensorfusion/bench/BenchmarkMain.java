@@ -0,0 +1,39 @@
+package sensorfusion.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the suite with the GC profiler attached, so every result comes with its allocation rate (gc.alloc.rate.norm
+ * is bytes allocated per operation). Accepts the usual JMH command line, -l and -h included; without a benchmark regex
+ * every benchmark in this package runs.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            // Nothing to run: let JMH print what was asked for.
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(BenchmarkMain.class.getPackage().getName() + "\\..*");
+        }
+        if (BenchmarkMain.class.getClassLoader().getResource(BatchBenchmark.VECTOR_KERNELS + ".class") != null) {
+            // Built with the vector profile. The class cannot be loaded here to find out, as this JVM may lack the
+            // incubator module as well; the forked JVMs need it.
+            options.jvmArgsAppend("--add-modules=jdk.incubator.vector");
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package sensorfusion.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost on the calling thread of handing one log.dat sized line to the Exporter: writeData for a ready line, format
+ * for the way samples used to be exported (SensorSingleData.toString, then writeData) and writeRecord for formatting
+ * straight into the export buffer. The disk write itself happens on the exporter's writer thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExporterBenchmark {
+    private SampleLog log;
+    private File exportFile;
+    private Object exporter;
+    private Object[] samples;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        log = SampleLog.load();
+        exportFile = File.createTempFile("exporter-bench", ".dat");
+        exporter = (Object) Hooks.NEW_EXPORTER.invokeExact((Object) exportFile.getPath());
+        Object parser = (Object) Hooks.NEW_LINE_PARSER.invokeExact();
+        samples = new Object[log.size];
+        for (int i = 0; i < log.size; i++) {
+            samples[i] = (Object) Hooks.NEW_SENSOR_SINGLE_DATA.invokeExact();
+            Object parsed = (Object) Hooks.PARSE.invokeExact(parser, (Object) log.buffer, log.starts[i], log.ends[i],
+                    samples[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Hooks.CLOSE_EXPORTER.invokeExact(exporter);
+        exportFile.delete();
+    }
+
+    @Benchmark
+    public void writeData() throws Throwable {
+        if (next == log.size) {
+            next = 0;
+        }
+        Hooks.WRITE_DATA.invokeExact(exporter, (Object) log.lines[next++]);
+    }
+
+    @Benchmark
+    public void format() throws Throwable {
+        if (next == log.size) {
+            next = 0;
+        }
+        Object line = (Object) Hooks.TO_STRING.invokeExact(samples[next++]);
+        Hooks.WRITE_DATA.invokeExact(exporter, line);
+    }
+
+    @Benchmark
+    public void writeRecord() throws Throwable {
+        if (next == log.size) {
+            next = 0;
+        }
+        Hooks.WRITE_RECORD.invokeExact(exporter, samples[next++]);
+    }
+}
@@ -0,0 +1,55 @@
+package sensorfusion.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One three-axis sample through a SensorFilter, as done four times per sample in LinearAcceleration. spec is a
+ * SensorFilters filter spec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    private static final int INPUTS = 1024;
+
+    @Param({"mean:10", "mean:30", "median:10", "median:30", "lowpass~10", "none"})
+    String spec;
+
+    private Object filter;
+    private final float[][] inputs = new float[INPUTS][3];
+    private final float[] out = new float[3];
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        filter = (Object) Hooks.CREATE_FILTER.invokeExact((Object) spec);
+        Random random = new Random(42);
+        for (float[] input : inputs) {
+            for (int i = 0; i < 3; i++) {
+                input[i] = (float) random.nextGaussian() * 10;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object filterFloat() throws Throwable {
+        float[] input = inputs[next++ & (INPUTS - 1)];
+        return (Object) Hooks.FILTER_FLOAT.invokeExact(filter, (Object) input, (Object) out);
+    }
+}
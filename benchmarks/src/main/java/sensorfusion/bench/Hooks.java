@@ -0,0 +1,93 @@
+package sensorfusion.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * The application classes live in the default package, which code in a named package (as JMH requires) cannot
+ * reference. Their entry points are therefore reached through method handles whose reference types are erased to
+ * Object. Held in static finals, these handles are constant-folded by the JIT and cost the same as a direct call.
+ */
+final class Hooks {
+    static final Class<?> SENSOR_SINGLE_DATA = type("SensorSingleData");
+
+    static final MethodHandle NEW_SENSOR_SINGLE_DATA = constructor("SensorSingleData");
+    static final MethodHandle NEW_EXPORTER = constructor("Exporter", String.class);
+    static final MethodHandle NEW_LINEAR_ACCELERATION = constructor("LinearAcceleration", type("Exporter"),
+            type("FusionMath"));
+    static final MethodHandle NEW_LINE_PARSER = constructor("SensorLineParser");
+
+    static final MethodHandle CREATE_FILTER = method("SensorFilters", "createFilter", String.class);
+    static final MethodHandle FILTER_FLOAT = method("SensorFilter", "filterFloat", float[].class, float[].class);
+
+    static final MethodHandle GET_ROTATION_MATRIX = method("LinearAcceleration", "getRotationMatrix",
+            float[].class, float[].class, float[].class, float[].class);
+    static final MethodHandle GET_ORIENTATION = method("LinearAcceleration", "getOrientation",
+            float[].class, float[].class, type("FusionMath"));
+    static final MethodHandle CALCULATE_FUSED_ORIENTATION = method("LinearAcceleration",
+            "calculateFusedOrientation");
+    static final MethodHandle ON_SENSOR_UPDATE = method("SensorListener", "onSensorUpdate", SENSOR_SINGLE_DATA);
+
+    static final MethodHandle PARSE = method("SensorLineParser", "parse",
+            java.nio.ByteBuffer.class, int.class, int.class, SENSOR_SINGLE_DATA);
+
+    static final MethodHandle NEW_BATCH_FUSION = constructor("BatchFusion", type("BatchKernels"));
+    static final MethodHandle NEW_SENSOR_BLOCK = constructor("SensorBlock", int.class);
+    static final MethodHandle BLOCK_ADD = method("SensorBlock", "add", SENSOR_SINGLE_DATA);
+    static final MethodHandle BATCH_PROCESS = method("BatchFusion", "process", type("SensorBlock"));
+
+    static final MethodHandle WRITE_DATA = method("Exporter", "writeData", String.class);
+    static final MethodHandle WRITE_RECORD = method("Exporter", "writeRecord", SENSOR_SINGLE_DATA);
+    static final MethodHandle TO_STRING = method("SensorSingleData", "toString");
+    static final MethodHandle CLOSE_EXPORTER = method("Exporter", "close");
+
+    private Hooks() {
+    }
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // FusionMath constant by name.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object fusionMath(String name) {
+        return Enum.valueOf((Class) type("FusionMath"), name);
+    }
+
+    // Instantiate a class by name, e.g. a BatchKernels implementation; null if it is not on the class path.
+    static Object newInstance(String className) {
+        try {
+            return Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static MethodHandle constructor(String className, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = type(className).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle method(String className, String name, Class<?>... parameters) {
+        try {
+            Method method = type(className).getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package sensorfusion.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The orientation stages of LinearAcceleration on the accelerometer and magnetometer readings of log.dat.
+ * calculateFusedOrientation also runs calculateLinearAcceleration and the export of the sample, as it does in the
+ * pipeline. math selects between java.lang.Math and the FusionMath.FAST approximations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrientationBenchmark {
+    private static final int PRIMING_SAMPLES = 100;
+
+    @Param({"EXACT", "FAST"})
+    private String math;
+    private Object fusionMath;
+
+    private float[][] gravity;
+    private float[][] magnetic;
+    private float[][] rotation;
+    private final float[] rotationOut = new float[9];
+    private final float[] orientationOut = new float[3];
+    private int next;
+
+    private File exportFile;
+    private Object exporter;
+    private Object linearAcceleration;
+
+    @Setup
+    public void setup() throws Throwable {
+        SampleLog log = SampleLog.load();
+        gravity = new float[log.size][3];
+        magnetic = new float[log.size][3];
+        rotation = new float[log.size][9];
+        for (int i = 0; i < log.size; i++) {
+            String[] columns = log.lines[i].trim().split("\\s+");
+            for (int axis = 0; axis < 3; axis++) {
+                gravity[i][axis] = Float.parseFloat(columns[2 + axis]);
+                magnetic[i][axis] = Float.parseFloat(columns[8 + axis]);
+            }
+            boolean ok = (boolean) Hooks.GET_ROTATION_MATRIX.invokeExact((Object) rotation[i], (Object) null,
+                    (Object) gravity[i], (Object) magnetic[i]);
+        }
+
+        fusionMath = Hooks.fusionMath(math);
+        exportFile = File.createTempFile("orientation-bench", ".dat");
+        exporter = (Object) Hooks.NEW_EXPORTER.invokeExact((Object) exportFile.getPath());
+        linearAcceleration = (Object) Hooks.NEW_LINEAR_ACCELERATION.invokeExact(exporter, fusionMath);
+        Object parser = (Object) Hooks.NEW_LINE_PARSER.invokeExact();
+        for (int i = 0; i < PRIMING_SAMPLES && i < log.size; i++) {
+            Object data = (Object) Hooks.NEW_SENSOR_SINGLE_DATA.invokeExact();
+            Object parsed = (Object) Hooks.PARSE.invokeExact(parser, (Object) log.buffer, log.starts[i], log.ends[i],
+                    data);
+            Hooks.ON_SENSOR_UPDATE.invokeExact(linearAcceleration, data);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Hooks.CLOSE_EXPORTER.invokeExact(exporter);
+        exportFile.delete();
+    }
+
+    @Benchmark
+    public boolean getRotationMatrix() throws Throwable {
+        int i = nextIndex();
+        return (boolean) Hooks.GET_ROTATION_MATRIX.invokeExact((Object) rotationOut, (Object) null,
+                (Object) gravity[i], (Object) magnetic[i]);
+    }
+
+    @Benchmark
+    public Object getOrientation() throws Throwable {
+        return (Object) Hooks.GET_ORIENTATION.invokeExact((Object) rotation[nextIndex()], (Object) orientationOut,
+                fusionMath);
+    }
+
+    @Benchmark
+    public void calculateFusedOrientation() throws Throwable {
+        Hooks.CALCULATE_FUSED_ORIENTATION.invokeExact(linearAcceleration);
+    }
+
+    private int nextIndex() {
+        if (next == gravity.length) {
+            next = 0;
+        }
+        return next++;
+    }
+}
@@ -0,0 +1,61 @@
+package sensorfusion.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One log.dat line through SensorLineParser, against the String.split based parsing it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    private SampleLog log;
+    private Object parser;
+    private Object target;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        log = SampleLog.load();
+        parser = (Object) Hooks.NEW_LINE_PARSER.invokeExact();
+        target = (Object) Hooks.NEW_SENSOR_SINGLE_DATA.invokeExact();
+    }
+
+    @Benchmark
+    public Object parseBytes() throws Throwable {
+        int i = nextIndex();
+        return (Object) Hooks.PARSE.invokeExact(parser, (Object) log.buffer, log.starts[i], log.ends[i], target);
+    }
+
+    @Benchmark
+    public void parseSplit(Blackhole blackhole) {
+        String[] sensorParts = log.lines[nextIndex()].split(" ");
+        blackhole.consume(Integer.valueOf(sensorParts[0]));
+        blackhole.consume(Long.valueOf(sensorParts[1]));
+        for (int column = 2; column < 11; column++) {
+            blackhole.consume(Float.valueOf(sensorParts[column]));
+        }
+    }
+
+    private int nextIndex() {
+        if (next == log.size) {
+            next = 0;
+        }
+        return next++;
+    }
+}
@@ -0,0 +1,73 @@
+package sensorfusion.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end samples per second: parse a log.dat line, fuse it and export the result. The capture is replayed from
+ * memory in a loop, so disk reads are excluded while the export writes are not. engine selects the fusion listener,
+ * so the Euler angle complementary filter can be compared with QuaternionFusion and the KalmanFusion EKF, and math
+ * the trigonometry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    @Param({"LinearAcceleration", "QuaternionFusion", "KalmanFusion"})
+    private String engine;
+
+    @Param({"EXACT", "FAST"})
+    private String math;
+
+    private SampleLog log;
+    private Object parser;
+    private Object sample;
+    private File exportFile;
+    private Object exporter;
+    private Object listener;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        log = SampleLog.load();
+        parser = (Object) Hooks.NEW_LINE_PARSER.invokeExact();
+        sample = (Object) Hooks.NEW_SENSOR_SINGLE_DATA.invokeExact();
+        exportFile = File.createTempFile("pipeline-bench", ".dat");
+        exporter = (Object) Hooks.NEW_EXPORTER.invokeExact((Object) exportFile.getPath());
+        listener = (Object) Hooks.constructor(engine, Hooks.type("Exporter"), Hooks.type("FusionMath"))
+                .invokeExact(exporter, Hooks.fusionMath(math));
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Hooks.CLOSE_EXPORTER.invokeExact(exporter);
+        exportFile.delete();
+    }
+
+    @Benchmark
+    public void sample() throws Throwable {
+        if (next == log.size) {
+            next = 0;
+        }
+        int i = next++;
+        Object parsed = (Object) Hooks.PARSE.invokeExact(parser, (Object) log.buffer, log.starts[i], log.ends[i],
+                sample);
+        Hooks.ON_SENSOR_UPDATE.invokeExact(listener, sample);
+    }
+}
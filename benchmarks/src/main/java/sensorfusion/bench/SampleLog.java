@@ -0,0 +1,70 @@
+package sensorfusion.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * log.dat held in memory with the bounds of every non-blank line, so benchmarks can replay it without touching the
+ * disk. The file is taken from the sensorfusion.log system property, falling back to log.dat in the working
+ * directory or its parent.
+ */
+final class SampleLog {
+    final ByteBuffer buffer;
+    final String[] lines;
+    final int[] starts;
+    final int[] ends;
+    final int size;
+
+    private SampleLog(byte[] bytes) {
+        buffer = ByteBuffer.wrap(bytes);
+        int[] lineStarts = new int[1024];
+        int[] lineEnds = new int[1024];
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i == bytes.length || bytes[i] == '\n') {
+                int end = i;
+                while (start < end && Character.isWhitespace(bytes[start])) {
+                    start++;
+                }
+                while (end > start && Character.isWhitespace(bytes[end - 1])) {
+                    end--;
+                }
+                if (end > start) {
+                    if (count == lineStarts.length) {
+                        lineStarts = Arrays.copyOf(lineStarts, count * 2);
+                        lineEnds = Arrays.copyOf(lineEnds, count * 2);
+                    }
+                    lineStarts[count] = start;
+                    lineEnds[count] = end;
+                    count++;
+                }
+                start = i + 1;
+            }
+        }
+        starts = Arrays.copyOf(lineStarts, count);
+        ends = Arrays.copyOf(lineEnds, count);
+        size = count;
+        lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = new String(bytes, starts[i], ends[i] - starts[i], StandardCharsets.US_ASCII);
+        }
+    }
+
+    static SampleLog load() throws IOException {
+        return new SampleLog(Files.readAllBytes(locate().toPath()));
+    }
+
+    static File locate() {
+        String property = System.getProperty("sensorfusion.log");
+        if (property != null) {
+            return new File(property);
+        }
+        File local = new File("log.dat");
+        return local.isFile() ? local : new File("../log.dat");
+    }
+}
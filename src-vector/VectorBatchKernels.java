@@ -0,0 +1,136 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BatchKernels on the JDK Vector API, processing FloatVector.SPECIES_PREFERRED lanes at a time (8 on AVX2) with the
+ * remainder of each range handled by ScalarBatchKernels. Everything is computed in float, including the SIN, COS,
+ * ATAN2 and ASIN lane operations, where LinearAcceleration evaluates trig in double; results therefore differ from
+ * the scalar path by float rounding (a few ulps).
+ *
+ * Needs JDK 16+ with --add-modules jdk.incubator.vector at compile and run time.
+ */
+public class VectorBatchKernels implements BatchKernels {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final FloatVector ONE = FloatVector.broadcast(SPECIES, 1.0f);
+
+    private final ScalarBatchKernels tail = new ScalarBatchKernels();
+
+    @Override
+    public void gyroDelta(SensorBlock block, int from, int to) {
+        float[] gx = block.gyroscope[0];
+        float[] gy = block.gyroscope[1];
+        float[] gz = block.gyroscope[2];
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector x = FloatVector.fromArray(SPECIES, gx, i);
+            FloatVector y = FloatVector.fromArray(SPECIES, gy, i);
+            FloatVector z = FloatVector.fromArray(SPECIES, gz, i);
+
+            // Normalize the rotation vector if it's big enough to get the axis
+            FloatVector omega = x.mul(x).add(y.mul(y)).add(z.mul(z)).sqrt();
+            VectorMask<Float> normalize = omega.compare(VectorOperators.GT, LinearAcceleration.EPSILON);
+            x = x.blend(x.div(omega), normalize);
+            y = y.blend(y.div(omega), normalize);
+            z = z.blend(z.div(omega), normalize);
+
+            FloatVector theta = omega.mul(FloatVector.fromArray(SPECIES, block.timeFactor, i));
+            FloatVector sin = theta.lanewise(VectorOperators.SIN);
+            FloatVector q3 = theta.lanewise(VectorOperators.COS);
+            FloatVector q0 = sin.mul(x);
+            FloatVector q1 = sin.mul(y);
+            FloatVector q2 = sin.mul(z);
+
+            x.intoArray(block.gyroUnit[0], i);
+            y.intoArray(block.gyroUnit[1], i);
+            z.intoArray(block.gyroUnit[2], i);
+            q0.intoArray(block.deltaRotation[0], i);
+            q1.intoArray(block.deltaRotation[1], i);
+            q2.intoArray(block.deltaRotation[2], i);
+            q3.intoArray(block.deltaRotation[3], i);
+
+            q1.mul(q3).sub(q0.mul(q2)).mul(2).intoArray(block.gravity[0], i);
+            q0.mul(q1).add(q2.mul(q3)).mul(2).intoArray(block.gravity[1], i);
+            q0.mul(q0).sub(q1.mul(q1)).sub(q2.mul(q2)).add(q3.mul(q3)).intoArray(block.gravity[2], i);
+        }
+        tail.gyroDelta(block, i, to);
+    }
+
+    @Override
+    public void rotation(SensorBlock block, int from, int to) {
+        float[][] r = block.rotation;
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector ax = FloatVector.fromArray(SPECIES, block.gravity[0], i);
+            FloatVector ay = FloatVector.fromArray(SPECIES, block.gravity[1], i);
+            FloatVector az = FloatVector.fromArray(SPECIES, block.gravity[2], i);
+            FloatVector ex = FloatVector.fromArray(SPECIES, block.filteredMagnetic[0], i);
+            FloatVector ey = FloatVector.fromArray(SPECIES, block.filteredMagnetic[1], i);
+            FloatVector ez = FloatVector.fromArray(SPECIES, block.filteredMagnetic[2], i);
+
+            FloatVector hx = ey.mul(az).sub(ez.mul(ay));
+            FloatVector hy = ez.mul(ax).sub(ex.mul(az));
+            FloatVector hz = ex.mul(ay).sub(ey.mul(ax));
+            FloatVector normH = hx.mul(hx).add(hy.mul(hy)).add(hz.mul(hz)).sqrt();
+            // device is close to free fall (or in space?), or close to magnetic north pole.
+            VectorMask<Float> valid = normH.compare(VectorOperators.GE, 0.1f);
+            FloatVector invH = ONE.div(normH);
+            hx = hx.mul(invH);
+            hy = hy.mul(invH);
+            hz = hz.mul(invH);
+            FloatVector invA = ONE.div(ax.mul(ax).add(ay.mul(ay)).add(az.mul(az)).sqrt());
+            ax = ax.mul(invA);
+            ay = ay.mul(invA);
+            az = az.mul(invA);
+            FloatVector mx = ay.mul(hz).sub(az.mul(hy));
+            FloatVector my = az.mul(hx).sub(ax.mul(hz));
+            FloatVector mz = ax.mul(hy).sub(ay.mul(hx));
+
+            hx.intoArray(r[0], i);
+            hy.intoArray(r[1], i);
+            hz.intoArray(r[2], i);
+            mx.intoArray(r[3], i);
+            my.intoArray(r[4], i);
+            mz.intoArray(r[5], i);
+            ax.intoArray(r[6], i);
+            ay.intoArray(r[7], i);
+            az.intoArray(r[8], i);
+            valid.intoArray(block.hasRotation, i);
+
+            hy.lanewise(VectorOperators.ATAN2, my).intoArray(block.orientation[0], i);
+            ay.neg().lanewise(VectorOperators.ASIN).intoArray(block.orientation[1], i);
+            ax.neg().lanewise(VectorOperators.ATAN2, az).intoArray(block.orientation[2], i);
+        }
+        tail.rotation(block, i, to);
+    }
+
+    @Override
+    public void linearAcceleration(SensorBlock block, int from, int to) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector pitch = FloatVector.fromArray(SPECIES, block.fusedOrientation[1], i);
+            FloatVector roll = FloatVector.fromArray(SPECIES, block.fusedOrientation[2], i);
+            FloatVector cosPitch = pitch.lanewise(VectorOperators.COS);
+            FloatVector sinPitch = pitch.lanewise(VectorOperators.SIN);
+            FloatVector sinRoll = roll.lanewise(VectorOperators.SIN);
+            FloatVector cosRoll = roll.lanewise(VectorOperators.COS);
+
+            // g*-cos(pitch)*sin(roll), g*-sin(pitch), g*cos(pitch)*cos(roll)
+            FloatVector x = cosPitch.mul(-Constants.GRAVITY_EARTH).mul(sinRoll);
+            FloatVector y = sinPitch.mul(-Constants.GRAVITY_EARTH);
+            FloatVector z = cosPitch.mul(Constants.GRAVITY_EARTH).mul(cosRoll);
+
+            FloatVector.fromArray(SPECIES, block.filteredAcceleration[0], i).sub(x)
+                    .intoArray(block.linearAcceleration[0], i);
+            FloatVector.fromArray(SPECIES, block.filteredAcceleration[1], i).sub(y)
+                    .intoArray(block.linearAcceleration[1], i);
+            FloatVector.fromArray(SPECIES, block.filteredAcceleration[2], i).sub(z)
+                    .intoArray(block.linearAcceleration[2], i);
+        }
+        tail.linearAcceleration(block, i, to);
+    }
+}
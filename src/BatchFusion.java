@@ -0,0 +1,182 @@
+/**
+ * Offline counterpart of LinearAcceleration that fuses whole SensorBlocks at a time. The stateless stages (gyro
+ * delta rotation, accelerometer/magnetometer rotation matrix and orientation, gravity components) run across the
+ * block through BatchKernels; the filters and the gyro integration with the complementary filter stay scalar
+ * and sequential. State carries over between blocks, so a capture can be fed in blocks of any size.
+ *
+ * With ScalarBatchKernels the output is bit-identical to LinearAcceleration. The Vector API kernels are used when
+ * available (see defaultKernels) and differ only by the rounding of their float trig approximations.
+ */
+public class BatchFusion {
+    private static final String VECTOR_KERNELS = "VectorBatchKernels";
+
+    private final BatchKernels kernels;
+    private final PipelineStats stats = PipelineStats.getInstance();
+
+    private final SensorFilter gravityFilter;
+    private final SensorFilter magneticFilter;
+    private final SensorFilter accelerationFilter;
+    private final SensorFilter linearAccelerationFilter;
+
+    private boolean hasOrientation = false;
+    private boolean initState = false;
+    private long timeStamp;
+
+    private final float[] gyroMatrix = new float[9];
+    private final float[] gyroOrientation = new float[3];
+    private final float[] orientation = new float[3];
+    private final float[] fusedOrientation = new float[3];
+    private final float[] rotationMatrix = new float[9];
+
+    // Scratch state reused on every sample.
+    private final float[] gyroscope = new float[3];
+    private final float[] deltaRotationVector = new float[4];
+    private final float[] deltaMatrix = new float[9];
+    private final float[] productMatrix = new float[9];
+    private final float[] sample = new float[3];
+    private final float[] xM = new float[9];
+    private final float[] yM = new float[9];
+    private final float[] zM = new float[9];
+    private final float[] xyM = new float[9];
+
+    public BatchFusion() {
+        this(defaultKernels());
+    }
+
+    public BatchFusion(BatchKernels kernels) {
+        this(kernels, new SensorFilters());
+    }
+
+    public BatchFusion(BatchKernels kernels, SensorFilters filters) {
+        this.kernels = kernels;
+
+        gravityFilter = filters.create(SensorFilters.Channel.GRAVITY);
+        magneticFilter = filters.create(SensorFilters.Channel.MAGNETIC);
+        accelerationFilter = filters.create(SensorFilters.Channel.ACCELERATION);
+        linearAccelerationFilter = filters.create(SensorFilters.Channel.LINEAR_ACCELERATION);
+
+        // Initialize gyroMatrix with identity matrix
+        gyroMatrix[0] = 1.0f;
+        gyroMatrix[4] = 1.0f;
+        gyroMatrix[8] = 1.0f;
+    }
+
+    /**
+     * The Vector API kernels if they were compiled in (src-vector) and jdk.incubator.vector is available, that is the
+     * JVM was started with --add-modules jdk.incubator.vector, otherwise the scalar ones.
+     */
+    public static BatchKernels defaultKernels() {
+        try {
+            return (BatchKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarBatchKernels();
+        }
+    }
+
+    public BatchKernels getKernels() {
+        return kernels;
+    }
+
+    /**
+     * Fuse every sample of the block. Afterwards isFused(i) tells which samples produced a linear acceleration.
+     */
+    public void process(SensorBlock block) {
+        int size = block.size;
+
+        for (int i = 0; i < size; i++) {
+            float dT = (block.timestamp[i] - timeStamp) * LinearAcceleration.NS2S;
+            block.timeFactor[i] = dT / 2.0f;
+            timeStamp = block.timestamp[i];
+        }
+        kernels.gyroDelta(block, 0, size);
+
+        filter(accelerationFilter, block.acceleration, block.filteredAcceleration, size);
+        filter(magneticFilter, block.magnetic, block.filteredMagnetic, size);
+        filter(gravityFilter, block.gravity, block.gravity, size);
+        kernels.rotation(block, 0, size);
+
+        for (int i = 0; i < size; i++) {
+            stats.onReceived();
+            block.fused[i] = fuse(block, i);
+        }
+
+        kernels.linearAcceleration(block, 0, size);
+        float[][] linear = block.linearAcceleration;
+        for (int i = 0; i < size; i++) {
+            if (block.fused[i]) {
+                sample[0] = linear[0][i];
+                sample[1] = linear[1][i];
+                sample[2] = linear[2][i];
+                linearAccelerationFilter.filterFloat(sample, sample);
+                linear[0][i] = sample[0];
+                linear[1][i] = sample[1];
+                linear[2][i] = sample[2];
+            }
+        }
+    }
+
+    // The sequential part of LinearAcceleration.onGyroscopeSensorChanged and calculateFusedOrientation.
+    private boolean fuse(SensorBlock block, int i) {
+        if (block.hasRotation[i]) {
+            for (int j = 0; j < 9; j++) {
+                rotationMatrix[j] = block.rotation[j][i];
+            }
+            orientation[0] = block.orientation[0][i];
+            orientation[1] = block.orientation[1][i];
+            orientation[2] = block.orientation[2][i];
+            hasOrientation = true;
+        } else {
+            stats.onRotationRejected();
+        }
+        if (!hasOrientation) {
+            stats.onWithoutOrientation();
+            return false;
+        }
+        stats.onFused();
+
+        if (!initState) {
+            LinearAcceleration.matrixMultiplication(gyroMatrix, rotationMatrix, productMatrix);
+            System.arraycopy(productMatrix, 0, gyroMatrix, 0, 9);
+            initState = true;
+        }
+
+        if (block.timestamp[i] != 0) {
+            // LinearAcceleration integrates again with the time step it has just consumed, i.e. a zero step.
+            gyroscope[0] = block.gyroUnit[0][i];
+            gyroscope[1] = block.gyroUnit[1][i];
+            gyroscope[2] = block.gyroUnit[2][i];
+            float dT = (block.timestamp[i] - block.timestamp[i]) * LinearAcceleration.NS2S;
+            LinearAcceleration.getRotationVectorFromGyro(gyroscope, dT / 2.0f, deltaRotationVector);
+        } else {
+            for (int j = 0; j < 4; j++) {
+                deltaRotationVector[j] = block.deltaRotation[j][i];
+            }
+        }
+
+        LinearAcceleration.getRotationMatrixFromVector(deltaMatrix, deltaRotationVector);
+        LinearAcceleration.matrixMultiplication(gyroMatrix, deltaMatrix, productMatrix);
+        System.arraycopy(productMatrix, 0, gyroMatrix, 0, 9);
+        LinearAcceleration.getOrientation(gyroMatrix, gyroOrientation);
+
+        LinearAcceleration.fuseOrientation(gyroOrientation, orientation, fusedOrientation);
+        LinearAcceleration.getRotationMatrixFromOrientation(fusedOrientation, gyroMatrix, xM, yM, zM, xyM);
+        System.arraycopy(fusedOrientation, 0, gyroOrientation, 0, 3);
+
+        block.fusedOrientation[0][i] = fusedOrientation[0];
+        block.fusedOrientation[1][i] = fusedOrientation[1];
+        block.fusedOrientation[2][i] = fusedOrientation[2];
+        return true;
+    }
+
+    private void filter(SensorFilter filter, float[][] in, float[][] out, int size) {
+        for (int i = 0; i < size; i++) {
+            sample[0] = in[0][i];
+            sample[1] = in[1][i];
+            sample[2] = in[2][i];
+            filter.filterFloat(sample, sample);
+            out[0][i] = sample[0];
+            out[1][i] = sample[1];
+            out[2][i] = sample[2];
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * The stateless stages of BatchFusion. Each method handles samples [from, to) of a block and depends on nothing but
+ * the columns of those samples, so implementations are free to process them in any order or in parallel lanes.
+ */
+public interface BatchKernels {
+    /**
+     * timeFactor, gyroscope -> gyroUnit, deltaRotation, gravity: the gyro delta rotation quaternion and the gravity
+     * estimate LinearAcceleration derives from it.
+     */
+    void gyroDelta(SensorBlock block, int from, int to);
+
+    /**
+     * gravity (filtered), filteredMagnetic -> rotation, hasRotation, orientation.
+     */
+    void rotation(SensorBlock block, int from, int to);
+
+    /**
+     * fusedOrientation, filteredAcceleration -> linearAcceleration, before the final filter.
+     */
+    void linearAcceleration(SensorBlock block, int from, int to);
+}
@@ -0,0 +1,292 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reprocesses many captures in parallel. Every file gets its own LinearAcceleration, filters and Exporter, so
+ * nothing is shared between files and the global bus is not used. Files are spread over a work-stealing pool with
+ * one worker per core.
+ *
+ * With -b the captures are fused in blocks of that many samples by BatchFusion instead of sample by sample; with -q
+ * they are fused by QuaternionFusion and with -k by KalmanFusion. -f switches the per-sample engines to the
+ * FusionMath.FAST approximations and -F sets the filter of each channel (see SensorFilters). -O writes the outputs in
+ * another export format, e.g. "binary+deflate" (see FusedLogFormat.parse); block fused outputs carry no orientation
+ * or gravity.
+ *
+ * Usage: BatchRunner [-o outputDir] [-b blockSize | -q | -k] [-f] [-F filters] [-O format] (directory | file)...
+ */
+public class BatchRunner {
+    private static final String OUTPUT_PREFIX = "new_";
+
+    private final File outputDir;
+    private final ForkJoinPool pool;
+    private int blockSize;
+    private boolean quaternion;
+    private boolean kalman;
+    private FusionMath math = FusionMath.EXACT;
+    private SensorFilters filters = new SensorFilters();
+    private String format = "text";
+
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final PipelineStats stats = PipelineStats.getInstance();
+
+    public BatchRunner(File outputDir) {
+        this(outputDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchRunner(File outputDir, int parallelism) {
+        this.outputDir = outputDir;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // 0 fuses sample by sample with LinearAcceleration.
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public void setQuaternion(boolean quaternion) {
+        this.quaternion = quaternion;
+    }
+
+    public void setKalman(boolean kalman) {
+        this.kalman = kalman;
+    }
+
+    public void setMath(FusionMath math) {
+        this.math = math;
+    }
+
+    public void setFilters(SensorFilters filters) {
+        this.filters = filters;
+    }
+
+    // Export format name, see FusedLogFormat.parse; every output gets its own instance.
+    public void setFormat(String format) {
+        FusedLogFormat.parse(format);
+        this.format = format;
+    }
+
+    /**
+     * Fuse every input on the pool. Inputs whose outputs would collide, such as a/log.dat and b/log.dat, or whose
+     * output is another input, such as dir/log.dat next to dir/new_log.dat, are refused before any is processed.
+     */
+    public void run(List<File> inputs) {
+        Map<Path, File> outputs = new HashMap<Path, File>();
+        for (File input : inputs) {
+            File previous = outputs.put(pathOf(outputFor(input)), input);
+            if (previous != null) {
+                throw new IllegalArgumentException(previous + " and " + input + " would both be written to "
+                        + outputFor(input));
+            }
+        }
+        for (File input : inputs) {
+            File writer = outputs.get(pathOf(input));
+            if (writer != null) {
+                throw new IllegalArgumentException(input + " is an input and would be overwritten as the output of "
+                        + writer);
+            }
+        }
+
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (final File input : inputs) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    processFile(input);
+                }
+            });
+        }
+
+        if (blockSize > 0) {
+            System.out.println(String.format("Fusing blocks of %d samples with %s", blockSize,
+                    BatchFusion.defaultKernels().getClass().getSimpleName()));
+        }
+        long start = System.nanoTime();
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        report(elapsed);
+    }
+
+    /**
+     * Fuse one capture into outputDir/new_&lt;name&gt;, replacing any previous output.
+     *
+     * @return the number of samples read
+     */
+    public long process(File input) throws IOException {
+        File output = outputFor(input);
+        Files.deleteIfExists(output.toPath());
+
+        SensorSource source = new Importer().openSource(input.getPath());
+        long count = 0;
+        try {
+            Exporter exporter = new Exporter(output.getPath(), FusedLogFormat.parse(format));
+            try {
+                if (blockSize > 0) {
+                    count = processBlocks(source, exporter);
+                } else {
+                    SensorListener listener = kalman ? new KalmanFusion(exporter, math, filters)
+                            : quaternion ? new QuaternionFusion(exporter, math, filters)
+                            : new LinearAcceleration(exporter, math, filters);
+                    SensorSingleData data = new SensorSingleData();
+                    while (source.next(data)) {
+                        stats.onIngested();
+                        listener.onSensorUpdate(data);
+                        count++;
+                    }
+                }
+            } finally {
+                exporter.close();
+            }
+        } finally {
+            source.close();
+        }
+        return count;
+    }
+
+    private File outputFor(File input) {
+        return new File(outputDir, OUTPUT_PREFIX + input.getName());
+    }
+
+    // file as an absolute path without "." or "..", for telling whether two names are the same file.
+    private static Path pathOf(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private long processBlocks(SensorSource source, Exporter exporter) throws IOException {
+        BatchFusion fusion = new BatchFusion(BatchFusion.defaultKernels(), filters);
+        SensorBlock block = new SensorBlock(blockSize);
+        SensorSingleData data = new SensorSingleData();
+        long count = 0;
+        boolean more = true;
+        while (more) {
+            block.clear();
+            while (!block.isFull() && (more = source.next(data))) {
+                stats.onIngested();
+                block.add(data);
+            }
+            fusion.process(block);
+            for (int i = 0; i < block.size(); i++) {
+                if (block.isFused(i)) {
+                    exporter.writeRecord(block.toExport(i, data));
+                    stats.onExported();
+                }
+            }
+            count += block.size();
+        }
+        return count;
+    }
+
+    private void processFile(File input) {
+        try {
+            samples.addAndGet(process(input));
+            bytes.addAndGet(input.length());
+            processed.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            System.err.println("Failed to process " + input);
+            e.printStackTrace();
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format("Processed %d files (%d failed) on %d workers in %.3f s",
+                processed.get(), failed.get(), pool.getParallelism(), seconds));
+        System.out.println(String.format("%d samples, %.0f samples/s, %.1f MB/s",
+                samples.get(), samples.get() / seconds, bytes.get() / seconds / (1024 * 1024)));
+    }
+
+    // Expands directories one level deep; hidden files and previous outputs are skipped.
+    static List<File> collectInputs(List<String> paths) throws IOException {
+        List<File> inputs = new ArrayList<File>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (!file.isDirectory()) {
+                inputs.add(file);
+                continue;
+            }
+            List<File> children = new ArrayList<File>();
+            DirectoryStream<Path> stream = Files.newDirectoryStream(file.toPath());
+            try {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    if (Files.isRegularFile(child) && !name.startsWith(".") && !name.startsWith(OUTPUT_PREFIX)) {
+                        children.add(child.toFile());
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+            Collections.sort(children);
+            inputs.addAll(children);
+        }
+        return inputs;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File outputDir = new File(".");
+        int blockSize = 0;
+        boolean quaternion = false;
+        boolean kalman = false;
+        FusionMath math = FusionMath.EXACT;
+        SensorFilters filters = new SensorFilters();
+        String format = "text";
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                outputDir = new File(args[++i]);
+            } else if ("-b".equals(args[i]) && i + 1 < args.length) {
+                blockSize = Integer.parseInt(args[++i]);
+            } else if ("-q".equals(args[i])) {
+                quaternion = true;
+            } else if ("-k".equals(args[i])) {
+                kalman = true;
+            } else if ("-f".equals(args[i])) {
+                math = FusionMath.FAST;
+            } else if ("-F".equals(args[i]) && i + 1 < args.length) {
+                filters = SensorFilters.parse(args[++i]);
+            } else if ("-O".equals(args[i]) && i + 1 < args.length) {
+                format = args[++i];
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.err.println("Usage: BatchRunner [-o outputDir] [-b blockSize | -q | -k] [-f] [-F filters] [-O format]"
+                    + " (directory | file)...");
+            System.exit(1);
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        PipelineStats.register();
+        BatchRunner runner = new BatchRunner(outputDir);
+        runner.setBlockSize(blockSize);
+        runner.setQuaternion(quaternion);
+        runner.setKalman(kalman);
+        runner.setMath(math);
+        runner.setFilters(filters);
+        runner.setFormat(format);
+        runner.run(collectInputs(paths));
+    }
+}
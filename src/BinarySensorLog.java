@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary form of log.dat. All values are little-endian.
+ *
+ * <pre>
+ * header (32 bytes):
+ *     0  int   magic "SFLG"
+ *     4  int   version
+ *     8  int   record size in bytes
+ *    12  int   reserved
+ *    16  long  sample count, -1 if the writer did not finish
+ *    24  long  reserved
+ *
+ * record (48 bytes):
+ *     0  long  timestamp
+ *     8  int   generation
+ *    12  float accX, accY, accZ, gyroX, gyroY, gyroZ, magX, magY, magZ
+ * </pre>
+ *
+ * Records are fixed width, so sample i lives at HEADER_SIZE + i * RECORD_SIZE.
+ */
+public final class BinarySensorLog {
+    public static final int MAGIC = 'S' | 'F' << 8 | 'L' << 16 | 'G' << 24;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 48;
+    public static final long UNKNOWN_COUNT = -1;
+
+    public static final int SAMPLE_COUNT_OFFSET = 16;
+
+    private BinarySensorLog() {
+    }
+
+    /**
+     * Convert a text log into the binary format.
+     *
+     * @return the number of samples written
+     */
+    public static long convert(String textFile, String binaryFile) throws IOException {
+        SensorSource source = TextSensorSource.open(textFile);
+        BinarySensorLogWriter writer = new BinarySensorLogWriter(binaryFile);
+        try {
+            SensorSingleData data = new SensorSingleData();
+            while (source.next(data)) {
+                writer.write(data);
+            }
+        } finally {
+            source.close();
+            writer.close();
+        }
+        return writer.getSampleCount();
+    }
+
+    // Returns true if the buffer, positioned at the start of a file, begins with the binary magic.
+    public static boolean isBinary(ByteBuffer header) {
+        int p = header.position();
+        return header.remaining() >= 4 && header.get(p) == 'S' && header.get(p + 1) == 'F'
+                && header.get(p + 2) == 'L' && header.get(p + 3) == 'G';
+    }
+
+    static void writeHeader(ByteBuffer buffer, long sampleCount) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(RECORD_SIZE);
+        buffer.putInt(0);
+        buffer.putLong(sampleCount);
+        buffer.putLong(0);
+    }
+
+    static void writeRecord(ByteBuffer buffer, SensorSingleData data) {
+        buffer.putLong(data.getTimestamp());
+        buffer.putInt(data.getGeneration());
+        buffer.putFloat(data.getAccX());
+        buffer.putFloat(data.getAccY());
+        buffer.putFloat(data.getAccZ());
+        buffer.putFloat(data.getGyroX());
+        buffer.putFloat(data.getGyroY());
+        buffer.putFloat(data.getGyroZ());
+        buffer.putFloat(data.getMagnX());
+        buffer.putFloat(data.getMagnY());
+        buffer.putFloat(data.getMagnZ());
+    }
+
+    static void readRecord(ByteBuffer buffer, int offset, SensorSingleData target) {
+        target.setTimestamp(buffer.getLong(offset));
+        target.setGeneration(buffer.getInt(offset + 8));
+        target.setAccX(buffer.getFloat(offset + 12));
+        target.setAccY(buffer.getFloat(offset + 16));
+        target.setAccZ(buffer.getFloat(offset + 20));
+        target.setGyroX(buffer.getFloat(offset + 24));
+        target.setGyroY(buffer.getFloat(offset + 28));
+        target.setGyroZ(buffer.getFloat(offset + 32));
+        target.setMagnX(buffer.getFloat(offset + 36));
+        target.setMagnY(buffer.getFloat(offset + 40));
+        target.setMagnZ(buffer.getFloat(offset + 44));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinarySensorLog <log.dat> <log.bin>");
+            System.exit(1);
+        }
+        long count = convert(args[0], args[1]);
+        System.out.println("Converted " + count + " samples to " + args[1]);
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped reader for the BinarySensorLog format. The file is mapped in windows of whole records so captures
+ * larger than 2 GB can be read, and no text is parsed.
+ */
+public class BinarySensorLogReader implements SensorSource {
+    private static final long WINDOW_RECORDS = (1 << 28) / BinarySensorLog.RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final long sampleCount;
+    private MappedByteBuffer window;
+    private long windowFirst; // index of the first sample in the current window
+    private int windowCount;
+    private long index;
+
+    public BinarySensorLogReader(String fileName) throws IOException {
+        channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(BinarySensorLog.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < BinarySensorLog.HEADER_SIZE || !BinarySensorLog.isBinary(header)) {
+                throw new IOException(fileName + " is not a binary sensor log");
+            }
+            int version = header.getInt(4);
+            int recordSize = header.getInt(8);
+            if (version != BinarySensorLog.VERSION || recordSize != BinarySensorLog.RECORD_SIZE) {
+                throw new IOException("Unsupported binary sensor log version " + version + " in " + fileName);
+            }
+            long available = (channel.size() - BinarySensorLog.HEADER_SIZE) / BinarySensorLog.RECORD_SIZE;
+            long count = header.getLong(BinarySensorLog.SAMPLE_COUNT_OFFSET);
+            // An unfinished file still holds every complete record that reached the disk.
+            sampleCount = count == BinarySensorLog.UNKNOWN_COUNT ? available : Math.min(count, available);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean next(SensorSingleData target) throws IOException {
+        if (index >= sampleCount) {
+            return false;
+        }
+        if (window == null || index < windowFirst || index - windowFirst >= windowCount) {
+            map(index);
+        }
+        BinarySensorLog.readRecord(window, (int) (index - windowFirst) * BinarySensorLog.RECORD_SIZE, target);
+        index++;
+        return true;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    // Index of the sample the next call to next() returns.
+    @Override
+    public long position() {
+        return index;
+    }
+
+    public void seek(long sampleIndex) {
+        if (sampleIndex < 0 || sampleIndex > sampleCount) {
+            throw new IllegalArgumentException("Sample " + sampleIndex + " outside [0, " + sampleCount + "]");
+        }
+        index = sampleIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private void map(long first) throws IOException {
+        windowFirst = first;
+        windowCount = (int) Math.min(WINDOW_RECORDS, sampleCount - first);
+        window = channel.map(FileChannel.MapMode.READ_ONLY,
+                BinarySensorLog.HEADER_SIZE + first * BinarySensorLog.RECORD_SIZE,
+                (long) windowCount * BinarySensorLog.RECORD_SIZE);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
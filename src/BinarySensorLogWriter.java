@@ -0,0 +1,58 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes samples in the BinarySensorLog format. The sample count in the header is filled in on close.
+ */
+public class BinarySensorLogWriter implements Closeable {
+    private static final int BUFFER_RECORDS = 4096;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long sampleCount;
+
+    public BinarySensorLogWriter(String fileName) throws IOException {
+        channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocateDirect(BinarySensorLog.RECORD_SIZE * BUFFER_RECORDS)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        BinarySensorLog.writeHeader(buffer, BinarySensorLog.UNKNOWN_COUNT);
+    }
+
+    public void write(SensorSingleData data) throws IOException {
+        if (buffer.remaining() < BinarySensorLog.RECORD_SIZE) {
+            drain();
+        }
+        BinarySensorLog.writeRecord(buffer, data);
+        sampleCount++;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            count.putLong(0, sampleCount);
+            channel.write(count, BinarySensorLog.SAMPLE_COUNT_OFFSET);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,52 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers of one size, handed out and taken back so that connections do not allocate (or leave the garbage
+ * collector to free) native memory of their own. Up to maxIdle returned buffers are kept; the rest are dropped. Not
+ * thread-safe: a pool belongs to the thread that uses its buffers, such as a SensorServer selector thread.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxIdle;
+    private final ArrayDeque<ByteBuffer> idle = new ArrayDeque<ByteBuffer>();
+    private long allocated;
+
+    public BufferPool(int bufferSize, int maxIdle) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+    }
+
+    // A cleared little-endian buffer of bufferSize bytes.
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.pollFirst();
+        if (buffer == null) {
+            allocated++;
+            return ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize) {
+            throw new IllegalArgumentException("Buffer of " + buffer.capacity() + " bytes is not from this pool");
+        }
+        if (idle.size() < maxIdle) {
+            buffer.clear();
+            idle.addFirst(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Buffers allocated over the life of the pool, a measure of how many were in use at once.
+    public long getAllocated() {
+        return allocated;
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Snapshot of a run over one capture: how many samples were consumed, where the input resumes, how long the output
+ * was, and the full state of the engine and its filters. Values are big-endian (DataOutput).
+ *
+ * <pre>
+ * int    magic "SFCP"
+ * int    version
+ * UTF    configuration, e.g. "LinearAcceleration EXACT gravity=mean:10,..."
+ * long   samples consumed
+ * long   input position, see SensorSource.position()
+ * long   output length in bytes
+ * ...    engine state, see Checkpointable
+ * </pre>
+ *
+ * Checkpoints are written to a temporary file and renamed over the previous one, so a crash leaves either the old
+ * or the new checkpoint, never a torn one.
+ */
+public class Checkpoint {
+    public static final int MAGIC = 'S' << 24 | 'F' << 16 | 'C' << 8 | 'P';
+    // 2: QuaternionFusion no longer saves the previous timestamp.
+    // 3: LowPassFilter saves its axis count before its state.
+    public static final int VERSION = 3;
+
+    private final String configuration;
+    private final long samples;
+    private final long inputPosition;
+    private final long outputLength;
+
+    public Checkpoint(String configuration, long samples, long inputPosition, long outputLength) {
+        this.configuration = configuration;
+        this.samples = samples;
+        this.inputPosition = inputPosition;
+        this.outputLength = outputLength;
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getInputPosition() {
+        return inputPosition;
+    }
+
+    public long getOutputLength() {
+        return outputLength;
+    }
+
+    // Atomically replace file with this checkpoint and the current state of engine.
+    public void write(File file, Checkpointable engine) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(configuration);
+            out.writeLong(samples);
+            out.writeLong(inputPosition);
+            out.writeLong(outputLength);
+            engine.writeState(out);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the checkpoint in file and restore its state into engine, which must have been built with the same
+     * configuration.
+     */
+    public static Checkpoint read(File file, String configuration, Checkpointable engine) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+            }
+            String saved = in.readUTF();
+            if (!saved.equals(configuration)) {
+                throw new IOException("Checkpoint " + file + " was taken with \"" + saved + "\", not \""
+                        + configuration + "\"");
+            }
+            Checkpoint checkpoint = new Checkpoint(saved, in.readLong(), in.readLong(), in.readLong());
+            engine.readState(in);
+            return checkpoint;
+        } finally {
+            in.close();
+        }
+    }
+
+    static void writeFloats(DataOutput out, float[] values) throws IOException {
+        out.writeInt(values.length);
+        for (float value : values) {
+            out.writeFloat(value);
+        }
+    }
+
+    // Into values, whose length must match the saved one.
+    static void readFloats(DataInput in, float[] values) throws IOException {
+        int length = in.readInt();
+        if (length != values.length) {
+            throw new IOException("Expected " + values.length + " values, found " + length);
+        }
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readFloat();
+        }
+    }
+
+    static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    static void readDoubles(DataInput in, double[] values) throws IOException {
+        int length = in.readInt();
+        if (length != values.length) {
+            throw new IOException("Expected " + values.length + " values, found " + length);
+        }
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readDouble();
+        }
+    }
+
+    static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static void readInts(DataInput in, int[] values) throws IOException {
+        int length = in.readInt();
+        if (length != values.length) {
+            throw new IOException("Expected " + values.length + " values, found " + length);
+        }
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+    }
+}
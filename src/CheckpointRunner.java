@@ -0,0 +1,184 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fuses one capture on the calling thread and takes a Checkpoint every N samples. If the checkpoint file exists when
+ * the run starts, the engine and filters are restored from it, the output is cut back to the length it had at the
+ * checkpoint and the input is read from where the checkpoint left it, so a crashed run picks up where it stopped and
+ * its output ends up identical to that of an uninterrupted run. Without a checkpoint the output is replaced, and the
+ * checkpoint is deleted once the capture is done.
+ *
+ * Usage: CheckpointRunner [-q | -k] [-f] [-F filters] [-O format] [-n interval] [-c checkpoint] [input [output]]
+ *
+ * The input defaults to log.dat, the output to new_log.dat and the checkpoint to the output name plus ".checkpoint".
+ * -O picks the export format, see FusedLogFormat.parse.
+ */
+public class CheckpointRunner {
+    public static final long DEFAULT_INTERVAL = 100000;
+
+    private final String input;
+    private final File output;
+    private final File checkpointFile;
+    private long interval = DEFAULT_INTERVAL;
+    private boolean quaternion;
+    private boolean kalman;
+    private FusionMath math = FusionMath.EXACT;
+    private SensorFilters filters = new SensorFilters();
+    private ExportFormat format = ExportFormat.TEXT;
+
+    private final PipelineStats stats = PipelineStats.getInstance();
+
+    public CheckpointRunner(String input, File output, File checkpointFile) {
+        this.input = input;
+        this.output = output;
+        this.checkpointFile = checkpointFile;
+    }
+
+    public void setInterval(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    public void setQuaternion(boolean quaternion) {
+        this.quaternion = quaternion;
+    }
+
+    public void setKalman(boolean kalman) {
+        this.kalman = kalman;
+    }
+
+    public void setMath(FusionMath math) {
+        this.math = math;
+    }
+
+    public void setFilters(SensorFilters filters) {
+        this.filters = filters;
+    }
+
+    public void setFormat(ExportFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Process the rest of the capture, resuming from the checkpoint if there is one.
+     *
+     * @return the checkpoint resumed from, or null for a fresh run
+     */
+    public Checkpoint run() throws IOException {
+        if (!checkpointFile.exists() && output.length() > 0) {
+            truncate(output, 0); // before the exporter opens it, whatever format it was written in
+        }
+        Exporter exporter = new Exporter(output.getPath(), format);
+        SensorListener listener = kalman ? new KalmanFusion(exporter, math, filters)
+                : quaternion ? new QuaternionFusion(exporter, math, filters)
+                : new LinearAcceleration(exporter, math, filters);
+        Checkpointable engine = (Checkpointable) listener;
+        String configuration = listener.getClass().getName() + " " + math + " " + filters + " " + format;
+
+        Checkpoint resumed = null;
+        long samples = 0;
+        long position = 0;
+        SensorSource source = null;
+        try {
+            if (checkpointFile.exists()) {
+                resumed = Checkpoint.read(checkpointFile, configuration, engine);
+                samples = resumed.getSamples();
+                position = resumed.getInputPosition();
+                truncate(output, resumed.getOutputLength());
+            }
+
+            source = new Importer().openSource(input, position);
+            SensorSingleData data = new SensorSingleData();
+            while (source.next(data)) {
+                stats.onIngested();
+                listener.onSensorUpdate(data);
+                if (++samples % interval == 0) {
+                    exporter.sync();
+                    new Checkpoint(configuration, samples, source.position(), output.length())
+                            .write(checkpointFile, engine);
+                }
+            }
+        } finally {
+            if (source != null) {
+                source.close();
+            }
+            exporter.close();
+        }
+        if (!checkpointFile.delete() && checkpointFile.exists()) {
+            throw new IOException("Cannot delete " + checkpointFile);
+        }
+        return resumed;
+    }
+
+    // Drop whatever was exported after the checkpoint was taken.
+    private static void truncate(File file, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < length) {
+                throw new IOException(file + " is shorter than its checkpoint: " + channel.size() + " < " + length);
+            }
+            channel.truncate(length);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String input = Constants.SENSOR_FILE_IMPORT;
+        String output = Constants.SENSOR_FILE_EXPORT;
+        String checkpoint = null;
+        long interval = DEFAULT_INTERVAL;
+        boolean quaternion = false;
+        boolean kalman = false;
+        FusionMath math = FusionMath.EXACT;
+        SensorFilters filters = new SensorFilters();
+        ExportFormat format = ExportFormat.TEXT;
+        int files = 0;
+        for (int i = 0; i < args.length; i++) {
+            if ("-q".equals(args[i])) {
+                quaternion = true;
+            } else if ("-k".equals(args[i])) {
+                kalman = true;
+            } else if ("-f".equals(args[i])) {
+                math = FusionMath.FAST;
+            } else if ("-F".equals(args[i]) && i + 1 < args.length) {
+                filters = SensorFilters.parse(args[++i]);
+            } else if ("-O".equals(args[i]) && i + 1 < args.length) {
+                format = FusedLogFormat.parse(args[++i]);
+            } else if ("-n".equals(args[i]) && i + 1 < args.length) {
+                interval = Long.parseLong(args[++i]);
+            } else if ("-c".equals(args[i]) && i + 1 < args.length) {
+                checkpoint = args[++i];
+            } else if (files == 0) {
+                input = args[i];
+                files++;
+            } else if (files == 1) {
+                output = args[i];
+                files++;
+            } else {
+                System.err.println("Usage: CheckpointRunner [-q | -k] [-f] [-F filters] [-O format] [-n interval]"
+                        + " [-c checkpoint] [input [output]]");
+                System.exit(1);
+            }
+        }
+        if (checkpoint == null) {
+            checkpoint = output + ".checkpoint";
+        }
+
+        CheckpointRunner runner = new CheckpointRunner(input, new File(output), new File(checkpoint));
+        runner.setInterval(interval);
+        runner.setQuaternion(quaternion);
+        runner.setKalman(kalman);
+        runner.setMath(math);
+        runner.setFilters(filters);
+        runner.setFormat(format);
+        Checkpoint resumed = runner.run();
+        if (resumed != null) {
+            System.out.println(String.format("Resumed %s at sample %d", input, resumed.getSamples()));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Something whose state can be saved in a Checkpoint and restored exactly, so that processing resumed from the
+ * checkpoint produces the same output bit for bit as an uninterrupted run.
+ */
+public interface Checkpointable {
+    void writeState(DataOutput out) throws IOException;
+
+    // Replace the current state with one written by writeState on an instance configured the same way.
+    void readState(DataInput in) throws IOException;
+}
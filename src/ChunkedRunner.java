@@ -0,0 +1,409 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fuses one large capture on all cores. The file is cut into chunks at sample boundaries and every chunk is fused by
+ * its own engine on a fork-join worker, writing to a part file that is appended to the output in order at the end.
+ *
+ * A fresh engine has no orientation and empty filter windows, so each chunk first replays the warm-up samples that
+ * precede it without keeping their output. The complementary filter pulls the orientation halfway to the
+ * accelerometer/magnetometer estimate every sample and the filters forget everything older than their window, so a
+ * few hundred samples bring a chunk engine to practically the state the sequential run has at that point. With -v
+ * the capture is also fused sequentially and the largest difference between the two is reported.
+ *
+ * Usage: ChunkedRunner [-q | -k] [-f] [-F filters] [-c chunks] [-w warmup] [-v] [input [output]]
+ */
+public class ChunkedRunner {
+    public static final int DEFAULT_WARMUP = 1000;
+
+    private static final int SCAN_BLOCK = 64 * 1024;
+
+    private final String input;
+    private final File output;
+    private final ForkJoinPool pool;
+    private int chunkCount;
+    private int warmup = DEFAULT_WARMUP;
+    private boolean verify;
+    private boolean quaternion;
+    private boolean kalman;
+    private FusionMath math = FusionMath.EXACT;
+    private SensorFilters filters = new SensorFilters();
+
+    // A range [start, end) of source positions, fused after replaying [warmupStart, start).
+    private static class Chunk {
+        final int index;
+        final long warmupStart;
+        final long start;
+        final long end;
+        File part;
+        File check;
+        long skip; // bytes of part written during the warm-up
+        long samples;
+
+        Chunk(int index, long warmupStart, long start, long end) {
+            this.index = index;
+            this.warmupStart = warmupStart;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public ChunkedRunner(String input, File output) {
+        this(input, output, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ChunkedRunner(String input, File output, int parallelism) {
+        this.input = input;
+        this.output = output;
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunkCount = parallelism * 4;
+    }
+
+    public void setChunkCount(int chunkCount) {
+        if (chunkCount < 1) {
+            throw new IllegalArgumentException("Chunk count must be positive: " + chunkCount);
+        }
+        this.chunkCount = chunkCount;
+    }
+
+    // Samples replayed before each chunk but the first.
+    public void setWarmup(int warmup) {
+        if (warmup < 0) {
+            throw new IllegalArgumentException("Warm-up must not be negative: " + warmup);
+        }
+        this.warmup = warmup;
+    }
+
+    // Also fuse the capture sequentially and report how far the chunked output is from it.
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public void setQuaternion(boolean quaternion) {
+        this.quaternion = quaternion;
+    }
+
+    public void setKalman(boolean kalman) {
+        this.kalman = kalman;
+    }
+
+    public void setMath(FusionMath math) {
+        this.math = math;
+    }
+
+    public void setFilters(SensorFilters filters) {
+        this.filters = filters;
+    }
+
+    public void run() throws IOException {
+        long start = System.nanoTime();
+        final List<Chunk> chunks = split();
+        List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (final Chunk chunk : chunks) {
+            chunk.part = new File(output.getPath() + ".part" + chunk.index);
+            chunk.check = verify ? new File(chunk.part.getPath() + ".check") : null;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        processChunk(chunk);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Chunk " + chunk.index + " of " + input + " failed", e);
+                    }
+                }
+            });
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+            pool.shutdown();
+            long samples = stitch(chunks);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("Fused %d samples in %d chunks on %d workers in %.3f s, %.0f samples/s",
+                    samples, chunks.size(), pool.getParallelism(), seconds, samples / seconds));
+            if (verify) {
+                verify(chunks);
+            }
+        } finally {
+            for (Chunk chunk : chunks) {
+                Files.deleteIfExists(chunk.part.toPath());
+                if (chunk.check != null) {
+                    Files.deleteIfExists(chunk.check.toPath());
+                }
+            }
+        }
+    }
+
+    private SensorListener newEngine(Exporter exporter) {
+        return kalman ? new KalmanFusion(exporter, math, filters)
+                : quaternion ? new QuaternionFusion(exporter, math, filters)
+                : new LinearAcceleration(exporter, math, filters);
+    }
+
+    private void processChunk(Chunk chunk) throws IOException {
+        Files.deleteIfExists(chunk.part.toPath());
+        Exporter exporter = new Exporter(chunk.part.getPath());
+        SensorListener listener = newEngine(exporter);
+        SensorSource source = new Importer().openSource(input, chunk.warmupStart);
+        DataOutputStream check = chunk.check == null ? null
+                : new DataOutputStream(new BufferedOutputStream(new FileOutputStream(chunk.check)));
+        try {
+            SensorSingleData data = new SensorSingleData();
+            while (source.position() < chunk.start && source.next(data)) {
+                listener.onSensorUpdate(data);
+            }
+            exporter.sync();
+            chunk.skip = chunk.part.length();
+            while (source.position() < chunk.end && source.next(data)) {
+                listener.onSensorUpdate(data);
+                chunk.samples++;
+                if (check != null) {
+                    writeResult(check, data);
+                }
+            }
+        } finally {
+            exporter.close();
+            source.close();
+            if (check != null) {
+                check.close();
+            }
+        }
+    }
+
+    // The fused values an engine leaves in the sample, which are what it exports.
+    private static void writeResult(DataOutputStream out, SensorSingleData data) throws IOException {
+        out.writeFloat(data.getAccX());
+        out.writeFloat(data.getAccY());
+        out.writeFloat(data.getAccZ());
+    }
+
+    // Append every part, less its warm-up output, to the output file.
+    private long stitch(List<Chunk> chunks) throws IOException {
+        long samples = 0;
+        FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            for (Chunk chunk : chunks) {
+                FileChannel in = FileChannel.open(chunk.part.toPath(), StandardOpenOption.READ);
+                try {
+                    long position = chunk.skip;
+                    long size = in.size();
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                } finally {
+                    in.close();
+                }
+                samples += chunk.samples;
+            }
+        } finally {
+            out.close();
+        }
+        return samples;
+    }
+
+    private void verify(List<Chunk> chunks) throws IOException {
+        long start = System.nanoTime();
+        File reference = new File(output.getPath() + ".sequential");
+        Files.deleteIfExists(reference.toPath());
+        Exporter exporter = new Exporter(reference.getPath());
+        SensorListener listener = newEngine(exporter);
+        SensorSource source = new Importer().openSource(input);
+        double maxDeviation = 0;
+        long worstSample = -1;
+        long differing = 0;
+        long sample = 0;
+        try {
+            SensorSingleData data = new SensorSingleData();
+            for (Chunk chunk : chunks) {
+                DataInputStream check = new DataInputStream(new BufferedInputStream(new FileInputStream(chunk.check)));
+                try {
+                    for (long i = 0; i < chunk.samples; i++, sample++) {
+                        if (!source.next(data)) {
+                            throw new EOFException("Sequential run ended at sample " + sample);
+                        }
+                        listener.onSensorUpdate(data);
+                        double deviation = Math.max(Math.abs(check.readFloat() - data.getAccX()),
+                                Math.max(Math.abs(check.readFloat() - data.getAccY()),
+                                        Math.abs(check.readFloat() - data.getAccZ())));
+                        if (deviation > 0) {
+                            differing++;
+                        }
+                        if (deviation > maxDeviation) {
+                            maxDeviation = deviation;
+                            worstSample = sample;
+                        }
+                    }
+                } finally {
+                    check.close();
+                }
+            }
+        } finally {
+            exporter.close();
+            source.close();
+            Files.deleteIfExists(reference.toPath());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Sequential run: %.3f s. %d of %d samples differ, max deviation %g m/s^2%s",
+                seconds, differing, sample, maxDeviation, worstSample < 0 ? "" : " at sample " + worstSample));
+    }
+
+    /**
+     * Cut the input into chunks of about equal size. Boundaries are source positions: sample indices in a binary log,
+     * line start offsets in a text one.
+     */
+    private List<Chunk> split() throws IOException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        SensorSource probe = new Importer().openSource(input);
+        try {
+            if (probe instanceof BinarySensorLogReader) {
+                long count = ((BinarySensorLogReader) probe).getSampleCount();
+                long previous = 0;
+                for (int i = 0; i < chunkCount && previous < count; i++) {
+                    long end = i == chunkCount - 1 ? count : count * (i + 1) / chunkCount;
+                    if (end > previous) {
+                        chunks.add(new Chunk(chunks.size(), Math.max(0, previous - warmup), previous, end));
+                        previous = end;
+                    }
+                }
+                return chunks;
+            }
+        } finally {
+            probe.close();
+        }
+
+        FileChannel channel = FileChannel.open(new File(input).toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long previous = 0;
+            for (int i = 0; i < chunkCount && previous < size; i++) {
+                long end = i == chunkCount - 1 ? size : nextLineStart(channel, size * (i + 1) / chunkCount);
+                if (end > previous) {
+                    long warmupStart = previous == 0 ? 0 : lineStartBefore(channel, previous, warmup);
+                    chunks.add(new Chunk(chunks.size(), warmupStart, previous, end));
+                    previous = end;
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        return chunks;
+    }
+
+    // The first line start at or after offset.
+    static long nextLineStart(FileChannel channel, long offset) throws IOException {
+        if (offset == 0) {
+            return 0;
+        }
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+        long position = offset - 1;
+        while (true) {
+            block.clear();
+            int read = channel.read(block, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (block.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    // The start of the line lines lines before the line starting at offset, or 0.
+    static long lineStartBefore(FileChannel channel, long offset, int lines) throws IOException {
+        if (lines == 0) {
+            return offset;
+        }
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+        int newlines = 0;
+        long end = offset - 1; // skip the newline ending the previous line
+        while (end > 0) {
+            long from = Math.max(0, end - SCAN_BLOCK);
+            block.clear().limit((int) (end - from));
+            while (block.hasRemaining() && channel.read(block, from + block.position()) > 0) {
+                // keep reading until the block is complete
+            }
+            for (int i = (int) (end - from) - 1; i >= 0; i--) {
+                if (block.get(i) == '\n' && ++newlines == lines) {
+                    return from + i + 1;
+                }
+            }
+            end = from;
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String input = Constants.SENSOR_FILE_IMPORT;
+        String output = Constants.SENSOR_FILE_EXPORT;
+        int chunkCount = 0;
+        int warmup = DEFAULT_WARMUP;
+        boolean verify = false;
+        boolean quaternion = false;
+        boolean kalman = false;
+        FusionMath math = FusionMath.EXACT;
+        SensorFilters filters = new SensorFilters();
+        int files = 0;
+        for (int i = 0; i < args.length; i++) {
+            if ("-q".equals(args[i])) {
+                quaternion = true;
+            } else if ("-k".equals(args[i])) {
+                kalman = true;
+            } else if ("-f".equals(args[i])) {
+                math = FusionMath.FAST;
+            } else if ("-F".equals(args[i]) && i + 1 < args.length) {
+                filters = SensorFilters.parse(args[++i]);
+            } else if ("-c".equals(args[i]) && i + 1 < args.length) {
+                chunkCount = Integer.parseInt(args[++i]);
+            } else if ("-w".equals(args[i]) && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if ("-v".equals(args[i])) {
+                verify = true;
+            } else if (files == 0) {
+                input = args[i];
+                files++;
+            } else if (files == 1) {
+                output = args[i];
+                files++;
+            } else {
+                System.err.println("Usage: ChunkedRunner [-q | -k] [-f] [-F filters] [-c chunks] [-w warmup] [-v]"
+                        + " [input [output]]");
+                System.exit(1);
+            }
+        }
+
+        ChunkedRunner runner = new ChunkedRunner(input, new File(output));
+        if (chunkCount > 0) {
+            runner.setChunkCount(chunkCount);
+        }
+        runner.setWarmup(warmup);
+        runner.setVerify(verify);
+        runner.setQuaternion(quaternion);
+        runner.setKalman(kalman);
+        runner.setMath(math);
+        runner.setFilters(filters);
+        runner.run();
+    }
+}
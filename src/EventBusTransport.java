@@ -0,0 +1,32 @@
+import com.google.common.eventbus.EventBus;
+
+/**
+ * Posts every sample to a Guava EventBus. A new instance is claimed per sample.
+ */
+public class EventBusTransport implements SensorTransport {
+    private final EventBus bus;
+    private SensorSingleData claimed;
+
+    public EventBusTransport(EventBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public SensorSingleData claim() {
+        if (claimed == null) {
+            claimed = new SensorSingleData();
+        }
+        return claimed;
+    }
+
+    @Override
+    public void publish() {
+        SensorSingleData data = claimed;
+        claimed = null;
+        bus.post(data);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the file an Exporter writes. write runs on the thread exporting the sample and appends one record to the
+ * buffer being filled; encode runs on the exporter's writer thread with every buffer handed off, so block level work
+ * such as compression stays off the fusion thread. An instance may keep scratch state and belongs to one Exporter.
+ */
+public interface ExportFormat {
+    /**
+     * The log.dat line format, see RecordWriter. Orientation and gravity are dropped.
+     */
+    ExportFormat TEXT = new ExportFormat() {
+        @Override
+        public int maxRecordSize() {
+            return RecordWriter.MAX_RECORD_SIZE;
+        }
+
+        @Override
+        public boolean keepsOrientation() {
+            return false;
+        }
+
+        @Override
+        public boolean acceptsRawData() {
+            return true;
+        }
+
+        @Override
+        public void write(SensorSingleData data, float[] orientation, float[] gravity, ByteBuffer out) {
+            RecordWriter.write(data, out);
+        }
+
+        @Override
+        public ByteBuffer encode(ByteBuffer block, boolean startOfFile) {
+            return block;
+        }
+
+        @Override
+        public void checkAppendable(File file) {
+            // Lines need no header.
+        }
+
+        @Override
+        public String toString() {
+            return "text";
+        }
+    };
+
+    /**
+     * The log.dat line format preceded by a column with the sample's device id, for output that mixes devices.
+     */
+    ExportFormat DEVICE_TEXT = new ExportFormat() {
+        @Override
+        public int maxRecordSize() {
+            return 11 + 1 + RecordWriter.MAX_RECORD_SIZE;
+        }
+
+        @Override
+        public boolean keepsOrientation() {
+            return false;
+        }
+
+        @Override
+        public boolean acceptsRawData() {
+            return false;
+        }
+
+        @Override
+        public void write(SensorSingleData data, float[] orientation, float[] gravity, ByteBuffer out) {
+            RecordWriter.appendLong(out, data.getDeviceId());
+            out.put((byte) ' ');
+            RecordWriter.write(data, out);
+        }
+
+        @Override
+        public ByteBuffer encode(ByteBuffer block, boolean startOfFile) {
+            return block;
+        }
+
+        @Override
+        public void checkAppendable(File file) {
+            // Lines need no header.
+        }
+
+        @Override
+        public String toString() {
+            return "device text";
+        }
+    };
+
+    int maxRecordSize();
+
+    // Whether the orientation passed to write is stored; engines skip computing one for formats that drop it.
+    boolean keepsOrientation();
+
+    // Whether Exporter.writeData may append bytes that did not come from write.
+    boolean acceptsRawData();
+
+    /**
+     * Append one fused sample. orientation is the unit quaternion [x, y, z, w] and gravity the vector that was
+     * subtracted from the acceleration; either may be null when the engine has none.
+     */
+    void write(SensorSingleData data, float[] orientation, float[] gravity, ByteBuffer out);
+
+    /**
+     * The bytes to write for a block of whole records, preceded by the file header when startOfFile is set. The
+     * result may be block itself or a buffer owned by the format, valid until the next call.
+     */
+    ByteBuffer encode(ByteBuffer block, boolean startOfFile) throws IOException;
+
+    /**
+     * Check that file, which is not empty, holds this layout, so that records appended to it can be read back.
+     *
+     * @throws IOException if it holds another layout or cannot be read
+     */
+    void checkAppendable(File file) throws IOException;
+}
@@ -1,16 +1,376 @@
-import com.google.common.base.Charsets;
-import com.google.common.io.Files;
-
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Appends lines to the export file through two large direct buffers. The caller fills one buffer while a background
+ * thread writes the other to an open channel, so writeData never touches the disk itself. A buffer is handed off when
+ * it is full, when it has been idle for the flush interval, or when the exporter is closed.
+ *
+ * Records are laid out by an ExportFormat, the log.dat text format unless another one is given. The writer thread
+ * passes every buffer through the format's encode before writing it. An existing file is appended to only if it
+ * holds the same format; a binary format does not append to text or to another encoding.
+ *
+ * If a write fails the writer stops writing, since anything after the gap would be misplaced, and sync, flush and
+ * close report the failure to the caller.
+ */
 public class Exporter {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final ByteBuffer POISON = ByteBuffer.allocate(0);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final String fileName;
+    private final FileChannel channel;
+    private final ExportFormat format;
+    private final long flushIntervalMs;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(2);
+    // Room for both buffers plus the poison pill, so close() never blocks while holding the lock.
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(3);
+    private final Thread writer;
+    private final Thread shutdownHook;
+
+    private ByteBuffer current;
+    private boolean closed;
+    private boolean started; // writer thread: whether a block has been written
+    private volatile IOException failure; // the first failed write, set by the writer thread
+
+    // Buffers given to the writer and buffers it has finished with, for sync().
+    private long handedOff;
+    private long written;
+    private final Object progress = new Object();
+
+    public Exporter() {
+        this(Constants.SENSOR_FILE_EXPORT, BUFFER_SIZE, FLUSH_INTERVAL_MS);
+    }
+
+    public Exporter(String fileName) {
+        this(fileName, BUFFER_SIZE, FLUSH_INTERVAL_MS);
+    }
+
+    public Exporter(String fileName, ExportFormat format) {
+        this(fileName, BUFFER_SIZE, FLUSH_INTERVAL_MS, format);
+    }
+
+    public Exporter(String fileName, int bufferSize, long flushIntervalMs) {
+        this(fileName, bufferSize, flushIntervalMs, ExportFormat.TEXT);
+    }
+
+    public Exporter(String fileName, int bufferSize, long flushIntervalMs, ExportFormat format) {
+        if (bufferSize < format.maxRecordSize()) {
+            throw new IllegalArgumentException("Buffer size must be at least " + format.maxRecordSize() + ": "
+                    + bufferSize);
+        }
+        File file = new File(fileName);
+        try {
+            if (file.length() > 0) {
+                format.checkAppendable(file);
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open " + fileName, e);
+        }
+        this.fileName = fileName;
+        this.format = format;
+        this.flushIntervalMs = flushIntervalMs;
+        current = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        free.add(ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN));
+
+        writer = new Thread("exporter-writer") {
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+
+        shutdownHook = new Thread() {
+            public void run() {
+                close();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
     public void writeData(String line) {
-        line += "\n";
+        lock.lock();
+        try {
+            ensureRawData();
+            if (!isAscii(line)) {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                for (byte b : bytes) {
+                    put(b);
+                }
+            } else {
+                for (int i = 0; i < line.length(); i++) {
+                    put((byte) line.charAt(i));
+                }
+            }
+            put((byte) '\n');
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Format one sample as a line straight into the export buffer; see RecordWriter. Unlike writeData(String) this
+     * does not allocate.
+     */
+    public void writeRecord(SensorSingleData data) {
+        writeRecord(data, null, null);
+    }
+
+    /**
+     * As above, with the orientation quaternion [x, y, z, w] and the gravity vector the sample was fused with, for
+     * formats that keep them.
+     */
+    public void writeRecord(SensorSingleData data, float[] orientation, float[] gravity) {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (current.remaining() < format.maxRecordSize()) {
+                handOff();
+            }
+            format.write(data, orientation, gravity, current);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean keepsOrientation() {
+        return format.keepsOrientation();
+    }
+
+    /**
+     * Copy already encoded bytes into the export stream. The source buffer is drained but not retained.
+     */
+    public void writeData(ByteBuffer bytes) {
+        lock.lock();
+        try {
+            ensureRawData();
+            while (bytes.hasRemaining()) {
+                if (!current.hasRemaining()) {
+                    handOff();
+                }
+                int chunk = Math.min(bytes.remaining(), current.remaining());
+                int limit = bytes.limit();
+                bytes.limit(bytes.position() + chunk);
+                current.put(bytes);
+                bytes.limit(limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hand the partially filled buffer to the writer without waiting for it to reach the disk.
+     *
+     * @throws IllegalStateException if an earlier write failed
+     */
+    public void flush() {
+        lock.lock();
         try {
-            Files.append(line, new File(Constants.SENSOR_FILE_EXPORT), Charsets.UTF_8);
+            ensureOpen();
+            if (failure != null) {
+                throw new IllegalStateException("Writing " + fileName + " failed", failure);
+            }
+            if (current.position() > 0) {
+                handOff();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write everything exported so far and force it to the storage device, blocking until done. Used before a
+     * Checkpoint records the length of the output.
+     *
+     * @throws IOException if this or any earlier write failed, in which case the output is incomplete
+     */
+    public void sync() throws IOException {
+        long target;
+        lock.lock();
+        try {
+            ensureOpen();
+            if (current.position() > 0) {
+                handOff();
+            }
+            target = handedOff;
+        } finally {
+            lock.unlock();
+        }
+        synchronized (progress) {
+            while (written < target) {
+                try {
+                    progress.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while syncing the export file", e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw new IOException("Writing " + fileName + " failed", failure);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Write what is left and close the file.
+     *
+     * @throws IllegalStateException if a write failed, after closing
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current.flip();
+            full.add(current);
+            full.add(POISON);
+            current = null;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down.
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Writing " + fileName + " failed", failure);
+        }
+    }
+
+    private void put(byte b) {
+        if (!current.hasRemaining()) {
+            handOff();
+        }
+        current.put(b);
+    }
+
+    // Called with the lock held, and waits for the writer, which therefore never blocks on the lock.
+    private void handOff() {
+        current.flip();
+        handedOff++;
+        try {
+            full.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing off export buffer", e);
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Exporter is closed");
+        }
+    }
+
+    private void ensureRawData() {
+        ensureOpen();
+        if (!format.acceptsRawData()) {
+            throw new IllegalStateException("The " + format + " export format only takes records");
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = full.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (buffer == null) {
+                    buffer = takeIdleBuffer();
+                    if (buffer == null) {
+                        continue;
+                    }
+                }
+                if (buffer == POISON) {
+                    return;
+                }
+                long start = PipelineMetrics.start();
+                long bytes = 0;
+                if (failure == null) {
+                    try {
+                        ByteBuffer encoded = format.encode(buffer, !started && channel.size() == 0);
+                        started = true;
+                        while (encoded.hasRemaining()) {
+                            bytes += channel.write(encoded);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                PipelineMetrics.record(PipelineMetrics.Stage.WRITE, start);
+                PipelineStats.getInstance().onExportWrite(bytes);
+                buffer.clear();
+                free.put(buffer);
+                synchronized (progress) {
+                    written++;
+                    progress.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Time based flush: swap out the buffer being filled if it holds data and the spare one is available. Skipped
+    // while the producer holds the lock, as it may be waiting in handOff for this thread to free a buffer.
+    private ByteBuffer takeIdleBuffer() {
+        if (!lock.tryLock()) {
+            return null;
+        }
+        try {
+            if (closed || current.position() == 0) {
+                return null;
+            }
+            ByteBuffer spare = free.poll();
+            if (spare == null) {
+                return null;
+            }
+            ByteBuffer buffer = current;
+            buffer.flip();
+            current = spare;
+            handedOff++;
+            return buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isAscii(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
     }
 }
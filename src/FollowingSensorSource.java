@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a text log that is still being written, like tail -F. Every sample already in the file is returned, then
+ * next() blocks until more lines are appended. Only the bytes past the last read position are read. A line counts
+ * once its newline has arrived, so a partly written last line is held back until the rest of it arrives.
+ *
+ * New data is noticed through a WatchService on the directory, with a periodic check as a fallback for events the
+ * platform drops or delays. At the end of the data the file is checked against the path:
+ * <ul>
+ * <li>a file shorter than the read position was truncated and is read again from the start;</li>
+ * <li>a path that now names another file (a different file key) was rotated: the old file is read to its end and
+ * the new one from its start;</li>
+ * <li>a missing file is waited for, as is one that does not exist yet when following starts.</li>
+ * </ul>
+ * Rotation is not detected on file systems without file keys.
+ */
+public class FollowingSensorSource implements SensorSource {
+    private static final long CHECK_INTERVAL_MS = 250;
+
+    private final Path path;
+    private final WatchService watcher;
+    private final SensorLineParser parser = new SensorLineParser();
+    private long idleTimeoutMs;
+
+    private FileChannel channel;
+    private Object fileKey;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(LineCursor.CHUNK_SIZE);
+    private long bufferOffset; // file offset of buffer[0]
+    private int start; // first byte not returned yet
+    private int scan; // where the search for the next newline resumes
+    private long lineNumber;
+
+    private volatile boolean stopped;
+    private long truncations;
+    private long rotations;
+
+    public FollowingSensorSource(String fileName) throws IOException {
+        path = Paths.get(fileName).toAbsolutePath();
+        watcher = path.getFileSystem().newWatchService();
+        path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    // End the stream after this long without new data; 0, the default, follows forever.
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        idleTimeoutMs = unit.toMillis(timeout);
+    }
+
+    @Override
+    public boolean next(SensorSingleData target) throws IOException {
+        long idleSince = System.currentTimeMillis();
+        while (!stopped) {
+            int newline = -1;
+            int limit = buffer.position();
+            for (int i = scan; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            if (newline < 0) {
+                scan = limit;
+                if (read()) {
+                    idleSince = System.currentTimeMillis();
+                } else if (!await(idleSince)) {
+                    return false;
+                }
+                continue;
+            }
+
+            int lineStart = start;
+            start = newline + 1;
+            scan = start;
+            lineNumber++;
+            if (isBlank(lineStart, newline)) {
+                continue;
+            }
+            try {
+                parser.parse(buffer, lineStart, newline, target);
+                return true;
+            } catch (SensorLineParser.MalformedLineException e) {
+                PipelineStats.getInstance().onMalformed();
+                new SensorLineParser.MalformedLineException(e.getReason(), lineNumber,
+                        bufferOffset + e.getOffset(), e.getColumn()).printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    // File offset just past the last line returned, in the file currently followed.
+    @Override
+    public long position() {
+        return bufferOffset + start;
+    }
+
+    public long getTruncations() {
+        return truncations;
+    }
+
+    public long getRotations() {
+        return rotations;
+    }
+
+    /**
+     * End the stream from another thread: a next() waiting for data returns false.
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Append whatever has been written since the last read to the buffer, switching files on truncation or rotation.
+     *
+     * @return true if anything changed that is worth scanning again
+     */
+    private boolean read() throws IOException {
+        if (channel == null) {
+            return open();
+        }
+        compact();
+        if (channel.read(buffer) > 0) {
+            return true;
+        }
+
+        long readOffset = bufferOffset + buffer.position();
+        if (channel.size() < readOffset) {
+            truncations++;
+            System.err.println(path + " was truncated, reading it again from the start");
+            channel.position(0);
+            discard(0);
+            return true;
+        }
+        Object currentKey = currentFileKey();
+        if (fileKey != null && currentKey != null && !fileKey.equals(currentKey)) {
+            rotations++;
+            if (buffer.position() > start) {
+                System.err.println(path + " was rotated, dropping its unfinished last line");
+            }
+            channel.close();
+            channel = null;
+            return open();
+        }
+        return false;
+    }
+
+    private boolean open() throws IOException {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        discard(0);
+        return true;
+    }
+
+    private Object currentFileKey() throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Forget the buffered bytes; the next byte read is at offset.
+    private void discard(long offset) {
+        buffer.clear();
+        bufferOffset = offset;
+        start = 0;
+        scan = 0;
+    }
+
+    // Move the unreturned bytes to the front of the buffer, growing it if a single line fills it.
+    private void compact() {
+        if (start == 0 && !buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        } else if (start > 0) {
+            buffer.limit(buffer.position()).position(start);
+            buffer.compact();
+            bufferOffset += start;
+            scan -= start;
+            start = 0;
+        }
+    }
+
+    // Wait for a change in the directory or the next periodic check; false once stopped or idle for too long.
+    private boolean await(long idleSince) {
+        long wait = CHECK_INTERVAL_MS;
+        if (idleTimeoutMs > 0) {
+            long left = idleSince + idleTimeoutMs - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait = Math.min(wait, left);
+        }
+        try {
+            WatchKey key = watcher.poll(wait, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                key.pollEvents();
+                key.reset();
+            }
+            return !stopped;
+        } catch (ClosedWatchServiceException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
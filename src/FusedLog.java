@@ -0,0 +1,174 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of the fused output. Unlike new_log.dat it keeps the raw gyro and magnetometer columns next to the
+ * linear acceleration and adds the orientation and gravity each sample was fused with. All values are little-endian.
+ *
+ * <pre>
+ * header (16 bytes):
+ *     0  int   magic "SFFR"
+ *     4  int   version
+ *     8  int   record size in bytes
+ *    12  int   encoding, DELTA and/or DEFLATE
+ *
+ * block, repeated to the end of the file:
+ *     0  int   length of the records before encoding, a multiple of the record size
+ *     4  int   length of the encoded records that follow
+ *
+ * record (76 bytes):
+ *     0  long  timestamp
+ *     8  int   generation
+ *    12  float linear accX, accY, accZ, gyroX, gyroY, gyroZ, magX, magY, magZ
+ *    48  float orientation quaternion x, y, z, w
+ *    64  float gravity x, y, z
+ * </pre>
+ *
+ * With DELTA the records of a block are stored column by column, each value as the zigzag varint of its difference
+ * from the value above it; floats are differenced as their raw bits, so nothing is lost. With DEFLATE the block is
+ * then compressed with zlib. Blocks are encoded independently, and a block cut short by a crash is ignored.
+ * Orientation and gravity are NaN when the engine did not provide them.
+ */
+public final class FusedLog {
+    public static final int MAGIC = 'S' | 'F' << 8 | 'F' << 16 | 'R' << 24;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int BLOCK_HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 76;
+
+    public static final int DELTA = 1;
+    public static final int DEFLATE = 2;
+
+    // A long and seventeen ints as varints of at most 10 and 5 bytes.
+    static final int MAX_DELTA_RECORD_SIZE = 10 + 17 * 5;
+
+    private FusedLog() {
+    }
+
+    static void writeHeader(ByteBuffer buffer, int encoding) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(RECORD_SIZE);
+        buffer.putInt(encoding);
+    }
+
+    static void writeRecord(ByteBuffer buffer, SensorSingleData data, float[] orientation, float[] gravity) {
+        buffer.putLong(data.getTimestamp());
+        buffer.putInt(data.getGeneration());
+        buffer.putFloat(data.getAccX());
+        buffer.putFloat(data.getAccY());
+        buffer.putFloat(data.getAccZ());
+        buffer.putFloat(data.getGyroX());
+        buffer.putFloat(data.getGyroY());
+        buffer.putFloat(data.getGyroZ());
+        buffer.putFloat(data.getMagnX());
+        buffer.putFloat(data.getMagnY());
+        buffer.putFloat(data.getMagnZ());
+        for (int i = 0; i < 4; i++) {
+            buffer.putFloat(orientation != null ? orientation[i] : Float.NaN);
+        }
+        for (int i = 0; i < 3; i++) {
+            buffer.putFloat(gravity != null ? gravity[i] : Float.NaN);
+        }
+    }
+
+    static void readRecord(ByteBuffer buffer, int offset, SensorSingleData target, float[] orientation,
+                           float[] gravity) {
+        target.setTimestamp(buffer.getLong(offset));
+        target.setGeneration(buffer.getInt(offset + 8));
+        target.setAccX(buffer.getFloat(offset + 12));
+        target.setAccY(buffer.getFloat(offset + 16));
+        target.setAccZ(buffer.getFloat(offset + 20));
+        target.setGyroX(buffer.getFloat(offset + 24));
+        target.setGyroY(buffer.getFloat(offset + 28));
+        target.setGyroZ(buffer.getFloat(offset + 32));
+        target.setMagnX(buffer.getFloat(offset + 36));
+        target.setMagnY(buffer.getFloat(offset + 40));
+        target.setMagnZ(buffer.getFloat(offset + 44));
+        if (orientation != null) {
+            for (int i = 0; i < 4; i++) {
+                orientation[i] = buffer.getFloat(offset + 48 + 4 * i);
+            }
+        }
+        if (gravity != null) {
+            for (int i = 0; i < 3; i++) {
+                gravity[i] = buffer.getFloat(offset + 64 + 4 * i);
+            }
+        }
+    }
+
+    /**
+     * Delta encode the whole records between position and limit of records into out, which needs room for
+     * MAX_DELTA_RECORD_SIZE bytes per record. records is consumed.
+     */
+    static void encodeDelta(ByteBuffer records, ByteBuffer out) {
+        int start = records.position();
+        int count = records.remaining() / RECORD_SIZE;
+        long previousLong = 0;
+        for (int i = 0; i < count; i++) {
+            long value = records.getLong(start + i * RECORD_SIZE);
+            long delta = value - previousLong;
+            putVarLong(out, delta << 1 ^ delta >> 63);
+            previousLong = value;
+        }
+        for (int column = 8; column < RECORD_SIZE; column += 4) {
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                int value = records.getInt(start + i * RECORD_SIZE + column);
+                int delta = value - previous;
+                putVarLong(out, (delta << 1 ^ delta >> 31) & 0xFFFFFFFFL);
+                previous = value;
+            }
+        }
+        records.position(start + count * RECORD_SIZE);
+    }
+
+    /**
+     * Inverse of encodeDelta: read count records from in and append them to out.
+     *
+     * @throws IllegalArgumentException if in ends early or holds a malformed varint
+     */
+    static void decodeDelta(ByteBuffer in, int count, ByteBuffer out) {
+        int start = out.position();
+        if (out.remaining() < count * RECORD_SIZE) {
+            throw new IllegalArgumentException("No room for " + count + " records");
+        }
+        long previousLong = 0;
+        for (int i = 0; i < count; i++) {
+            long zigzag = getVarLong(in);
+            previousLong += zigzag >>> 1 ^ -(zigzag & 1);
+            out.putLong(start + i * RECORD_SIZE, previousLong);
+        }
+        for (int column = 8; column < RECORD_SIZE; column += 4) {
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                int zigzag = (int) getVarLong(in);
+                previous += zigzag >>> 1 ^ -(zigzag & 1);
+                out.putInt(start + i * RECORD_SIZE + column, previous);
+            }
+        }
+        out.position(start + count * RECORD_SIZE);
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IllegalArgumentException("Delta block ends inside a value");
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than 10 bytes");
+    }
+}
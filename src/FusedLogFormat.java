@@ -0,0 +1,158 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Deflater;
+
+/**
+ * ExportFormat writing the FusedLog binary layout. Records are appended as fixed-width rows on the fusion thread;
+ * delta encoding and compression of a block happen in encode, on the exporter's writer thread.
+ */
+public class FusedLogFormat implements ExportFormat {
+    private final int encoding;
+    private final Deflater deflater;
+
+    // Writer thread scratch, grown to the largest block seen.
+    private ByteBuffer out = ByteBuffer.allocate(0);
+    private ByteBuffer delta = ByteBuffer.allocate(0);
+    private byte[] input = new byte[0];
+
+    public FusedLogFormat(int encoding) {
+        if ((encoding & ~(FusedLog.DELTA | FusedLog.DEFLATE)) != 0) {
+            throw new IllegalArgumentException("Unknown fused log encoding: " + encoding);
+        }
+        this.encoding = encoding;
+        deflater = (encoding & FusedLog.DEFLATE) != 0 ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    /**
+     * An export format by name: "text", or "binary" optionally followed by "+delta" and/or "+deflate".
+     */
+    public static ExportFormat parse(String spec) {
+        if ("text".equals(spec)) {
+            return ExportFormat.TEXT;
+        }
+        String[] parts = spec.split("\\+");
+        if (!"binary".equals(parts[0])) {
+            throw new IllegalArgumentException("Unknown export format: " + spec);
+        }
+        int encoding = 0;
+        for (int i = 1; i < parts.length; i++) {
+            if ("delta".equals(parts[i])) {
+                encoding |= FusedLog.DELTA;
+            } else if ("deflate".equals(parts[i])) {
+                encoding |= FusedLog.DEFLATE;
+            } else {
+                throw new IllegalArgumentException("Unknown encoding \"" + parts[i] + "\" in " + spec);
+            }
+        }
+        return new FusedLogFormat(encoding);
+    }
+
+    @Override
+    public int maxRecordSize() {
+        return FusedLog.RECORD_SIZE;
+    }
+
+    @Override
+    public boolean keepsOrientation() {
+        return true;
+    }
+
+    @Override
+    public boolean acceptsRawData() {
+        return false;
+    }
+
+    @Override
+    public void write(SensorSingleData data, float[] orientation, float[] gravity, ByteBuffer out) {
+        FusedLog.writeRecord(out, data, orientation, gravity);
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer block, boolean startOfFile) {
+        int rawLength = block.remaining();
+        int records = rawLength / FusedLog.RECORD_SIZE;
+        out = ensureCapacity(out, FusedLog.HEADER_SIZE + FusedLog.BLOCK_HEADER_SIZE
+                + records * FusedLog.MAX_DELTA_RECORD_SIZE);
+        if (startOfFile) {
+            FusedLog.writeHeader(out, encoding);
+        }
+        if (records == 0) {
+            out.flip();
+            return out;
+        }
+
+        int blockStart = out.position();
+        out.position(blockStart + FusedLog.BLOCK_HEADER_SIZE);
+        if (deflater == null) {
+            if ((encoding & FusedLog.DELTA) != 0) {
+                FusedLog.encodeDelta(block, out);
+            } else {
+                out.put(block);
+            }
+        } else if ((encoding & FusedLog.DELTA) != 0) {
+            delta = ensureCapacity(delta, records * FusedLog.MAX_DELTA_RECORD_SIZE);
+            FusedLog.encodeDelta(block, delta);
+            deflate(delta.array(), delta.position());
+        } else {
+            if (input.length < rawLength) {
+                input = new byte[rawLength];
+            }
+            block.get(input, 0, rawLength);
+            deflate(input, rawLength);
+        }
+        out.putInt(blockStart, rawLength);
+        out.putInt(blockStart + 4, out.position() - blockStart - FusedLog.BLOCK_HEADER_SIZE);
+        out.flip();
+        return out;
+    }
+
+    @Override
+    public void checkAppendable(File file) throws IOException {
+        FusedLogReader reader = new FusedLogReader(file.getPath());
+        try {
+            if (reader.getEncoding() != encoding) {
+                throw new IOException(file + " holds " + name(reader.getEncoding()) + " records, not " + this);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name(encoding);
+    }
+
+    private static String name(int encoding) {
+        return "binary" + ((encoding & FusedLog.DELTA) != 0 ? "+delta" : "")
+                + ((encoding & FusedLog.DEFLATE) != 0 ? "+deflate" : "");
+    }
+
+    // Compress the first length bytes of bytes to the position of out, growing out if they do not shrink.
+    private void deflate(byte[] bytes, int length) {
+        deflater.reset();
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (!out.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(out.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            int n = deflater.deflate(out.array(), out.position(), out.remaining());
+            out.position(out.position() + n);
+        }
+    }
+
+    // buffer cleared, or a larger one if it holds less than capacity bytes.
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() < capacity) {
+            return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+}
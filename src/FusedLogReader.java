@@ -0,0 +1,219 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a FusedLog one block at a time, whatever its encoding. A block the writer did not finish ends the log.
+ *
+ * Usage: FusedLogReader file
+ *
+ * prints the log as text: the new_log.dat columns followed by the orientation quaternion and the gravity vector.
+ */
+public class FusedLogReader implements Closeable {
+    private final FileChannel channel;
+    private final String fileName;
+    private final int encoding;
+    private final Inflater inflater;
+
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(FusedLog.BLOCK_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer encoded = ByteBuffer.allocate(0);
+    private ByteBuffer inflated = ByteBuffer.allocate(0);
+    private ByteBuffer records = ByteBuffer.allocate(0);
+    private long count;
+
+    public FusedLogReader(String fileName) throws IOException {
+        this.fileName = fileName;
+        channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(FusedLog.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(header) || header.getInt(0) != FusedLog.MAGIC) {
+                throw new IOException(fileName + " is not a fused log");
+            }
+            int version = header.getInt(4);
+            int recordSize = header.getInt(8);
+            if (version != FusedLog.VERSION || recordSize != FusedLog.RECORD_SIZE) {
+                throw new IOException("Unsupported fused log version " + version + " in " + fileName);
+            }
+            encoding = header.getInt(12);
+            if ((encoding & ~(FusedLog.DELTA | FusedLog.DEFLATE)) != 0) {
+                throw new IOException("Unknown encoding " + encoding + " in " + fileName);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        inflater = (encoding & FusedLog.DEFLATE) != 0 ? new Inflater() : null;
+    }
+
+    /**
+     * Read the next record into target, orientation (4 floats) and gravity (3 floats); either array may be null.
+     *
+     * @return false at the end of the log
+     */
+    public boolean next(SensorSingleData target, float[] orientation, float[] gravity) throws IOException {
+        if (!records.hasRemaining() && !readBlock()) {
+            return false;
+        }
+        FusedLog.readRecord(records, records.position(), target, orientation, gravity);
+        records.position(records.position() + FusedLog.RECORD_SIZE);
+        count++;
+        return true;
+    }
+
+    // DELTA and/or DEFLATE, from the header.
+    public int getEncoding() {
+        return encoding;
+    }
+
+    // Records returned so far.
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) {
+            inflater.end();
+        }
+        channel.close();
+    }
+
+    private boolean readBlock() throws IOException {
+        while (true) {
+            blockHeader.clear();
+            if (!readFully(blockHeader)) {
+                return false;
+            }
+            int rawLength = blockHeader.getInt(0);
+            int encodedLength = blockHeader.getInt(4);
+            if (rawLength < 0 || rawLength % FusedLog.RECORD_SIZE != 0 || encodedLength < 0) {
+                throw new IOException("Corrupt block header at " + (channel.position() - FusedLog.BLOCK_HEADER_SIZE)
+                        + " in " + fileName);
+            }
+            encoded = ensureCapacity(encoded, encodedLength);
+            encoded.limit(encodedLength);
+            if (!readFully(encoded)) {
+                return false;
+            }
+            decode(rawLength);
+            if (records.hasRemaining()) {
+                return true;
+            }
+        }
+    }
+
+    private void decode(int rawLength) throws IOException {
+        ByteBuffer source = encoded;
+        if (inflater != null) {
+            int bound = (encoding & FusedLog.DELTA) != 0
+                    ? rawLength / FusedLog.RECORD_SIZE * FusedLog.MAX_DELTA_RECORD_SIZE : rawLength;
+            inflated = ensureCapacity(inflated, bound);
+            inflater.reset();
+            inflater.setInput(encoded.array(), 0, encoded.limit());
+            try {
+                int length = 0;
+                while (!inflater.finished() && length < bound) {
+                    int n = inflater.inflate(inflated.array(), length, bound - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+                if (!inflater.finished()) {
+                    throw new IOException("Corrupt compressed block in " + fileName);
+                }
+                inflated.limit(length);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt compressed block in " + fileName, e);
+            }
+            source = inflated;
+        }
+
+        records = ensureCapacity(records, rawLength);
+        try {
+            if ((encoding & FusedLog.DELTA) != 0) {
+                FusedLog.decodeDelta(source, rawLength / FusedLog.RECORD_SIZE, records);
+            } else if (source.remaining() == rawLength) {
+                records.put(source);
+            } else {
+                throw new IOException("Block of " + source.remaining() + " bytes instead of " + rawLength + " in "
+                        + fileName);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt delta block in " + fileName, e);
+        }
+        records.flip();
+    }
+
+    // False if the file ends before buffer is full.
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() < capacity) {
+            return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: FusedLogReader <file>");
+            System.exit(1);
+        }
+        FusedLogReader reader = new FusedLogReader(args[0]);
+        WritableByteChannel stdout = Channels.newChannel(System.out);
+        int maxLine = RecordWriter.MAX_RECORD_SIZE + 7 * 16;
+        ByteBuffer text = ByteBuffer.allocate(1 << 16);
+        SensorSingleData data = new SensorSingleData();
+        float[] orientation = new float[4];
+        float[] gravity = new float[3];
+        try {
+            while (reader.next(data, orientation, gravity)) {
+                if (text.remaining() < maxLine) {
+                    drain(text, stdout);
+                }
+                RecordWriter.write(data, text);
+                text.position(text.position() - 1); // continue the line past its newline
+                for (float v : orientation) {
+                    text.put((byte) ' ');
+                    RecordWriter.appendFloat(text, v);
+                }
+                for (float v : gravity) {
+                    text.put((byte) ' ');
+                    RecordWriter.appendFloat(text, v);
+                }
+                text.put((byte) '\n');
+            }
+            drain(text, stdout);
+        } finally {
+            reader.close();
+        }
+        System.out.flush();
+    }
+
+    private static void drain(ByteBuffer text, WritableByteChannel out) throws IOException {
+        text.flip();
+        while (text.hasRemaining()) {
+            out.write(text);
+        }
+        text.clear();
+    }
+}
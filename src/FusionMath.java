@@ -0,0 +1,206 @@
+/**
+ * The transcendental functions of the fusion pipeline. EXACT calls java.lang.Math in double precision and rounds
+ * to float, as LinearAcceleration always has. FAST uses float polynomials instead; its worst absolute errors,
+ * measured over the whole argument range against EXACT (see FusionMathReport), are:
+ *
+ * <pre>
+ * sin, cos     |x| &lt;= 4 pi          1.2e-7
+ * atan2        all directions         2.4e-7 rad
+ * asin         [-1, 1]                1.2e-7 rad
+ * gravity      |pitch|, |roll| &lt;= pi  1.9e-6 m/s^2 (after scaling by g)
+ * </pre>
+ *
+ * That is one or two float ulps of the result. Square roots stay on Math.sqrt, which compiles to a single
+ * instruction in either mode.
+ */
+public enum FusionMath {
+    EXACT {
+        @Override
+        float sin(float x) {
+            return (float) Math.sin(x);
+        }
+
+        @Override
+        float cos(float x) {
+            return (float) Math.cos(x);
+        }
+
+        @Override
+        float atan2(float y, float x) {
+            return (float) Math.atan2(y, x);
+        }
+
+        @Override
+        float asin(float x) {
+            return (float) Math.asin(x);
+        }
+
+        @Override
+        float magnitude(float x, float y, float z) {
+            return (float) Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2) + Math.pow(z, 2));
+        }
+
+        @Override
+        void gravity(float pitch, float roll, float[] components) {
+            components[0] = (float) (Constants.GRAVITY_EARTH * -Math.cos(pitch) * Math.sin(roll));
+            components[1] = (float) (Constants.GRAVITY_EARTH * -Math.sin(pitch));
+            components[2] = (float) (Constants.GRAVITY_EARTH * Math.cos(pitch) * Math.cos(roll));
+        }
+    },
+    FAST {
+        @Override
+        float sin(float x) {
+            return fastSin(x);
+        }
+
+        @Override
+        float cos(float x) {
+            return fastCos(x);
+        }
+
+        @Override
+        float atan2(float y, float x) {
+            return fastAtan2(y, x);
+        }
+
+        @Override
+        float asin(float x) {
+            return fastAsin(x);
+        }
+
+        @Override
+        float magnitude(float x, float y, float z) {
+            return (float) Math.sqrt(x * x + y * y + z * z);
+        }
+
+        @Override
+        void gravity(float pitch, float roll, float[] components) {
+            float cosPitch = fastCos(pitch);
+            components[0] = Constants.GRAVITY_EARTH * -cosPitch * fastSin(roll);
+            components[1] = Constants.GRAVITY_EARTH * -fastSin(pitch);
+            components[2] = Constants.GRAVITY_EARTH * cosPitch * fastCos(roll);
+        }
+    };
+
+    private static final float PI = (float) Math.PI;
+    private static final float PI_2 = (float) (Math.PI / 2);
+    private static final float PI_4 = (float) (Math.PI / 4);
+    private static final float TWO_OVER_PI = (float) (2 / Math.PI);
+    // pi/2 split so that k * PI_2_HI is exact for the quadrant counts seen here (Cody-Waite reduction).
+    private static final float PI_2_HI = 1.5703125f;
+    private static final float PI_2_LO = (float) (Math.PI / 2 - 1.5703125);
+    private static final float TAN_PI_8 = (float) (Math.sqrt(2) - 1);
+    private static final float TAN_3PI_8 = (float) (Math.sqrt(2) + 1);
+
+    abstract float sin(float x);
+
+    abstract float cos(float x);
+
+    abstract float atan2(float y, float x);
+
+    abstract float asin(float x);
+
+    // Euclidean norm of (x, y, z).
+    abstract float magnitude(float x, float y, float z);
+
+    /**
+     * Gravity components of the acceleration signal for the given pitch and roll:
+     * g * (-cos(pitch) * sin(roll), -sin(pitch), cos(pitch) * cos(roll)).
+     */
+    abstract void gravity(float pitch, float roll, float[] components);
+
+    // Taylor polynomials on [-pi/4, pi/4] after reducing by multiples of pi/2; truncation error below 3.2e-7.
+    static float fastSin(float x) {
+        int quadrant = Math.round(x * TWO_OVER_PI);
+        float r = x - quadrant * PI_2_HI - quadrant * PI_2_LO;
+        switch (quadrant & 3) {
+            case 0:
+                return sinPolynomial(r);
+            case 1:
+                return cosPolynomial(r);
+            case 2:
+                return -sinPolynomial(r);
+            default:
+                return -cosPolynomial(r);
+        }
+    }
+
+    static float fastCos(float x) {
+        int quadrant = Math.round(x * TWO_OVER_PI);
+        float r = x - quadrant * PI_2_HI - quadrant * PI_2_LO;
+        switch (quadrant & 3) {
+            case 0:
+                return cosPolynomial(r);
+            case 1:
+                return -sinPolynomial(r);
+            case 2:
+                return -cosPolynomial(r);
+            default:
+                return sinPolynomial(r);
+        }
+    }
+
+    private static float sinPolynomial(float r) {
+        float r2 = r * r;
+        return r + r * r2 * (-1.0f / 6 + r2 * (1.0f / 120 + r2 * (-1.0f / 5040 + r2 * (1.0f / 362880))));
+    }
+
+    private static float cosPolynomial(float r) {
+        float r2 = r * r;
+        return 1.0f + r2 * (-0.5f + r2 * (1.0f / 24 + r2 * (-1.0f / 720 + r2 * (1.0f / 40320))));
+    }
+
+    /**
+     * Quadrant corrected atan(y / x). The argument is folded into [-tan(pi/8), tan(pi/8)], where a minimax polynomial
+     * (the one of the Cephes atanf) is accurate to a float ulp.
+     */
+    static float fastAtan2(float y, float x) {
+        if (x == 0) {
+            return (float) Math.atan2(y, x); // y / x would lose the sign of a zero x
+        }
+        float result = fastAtan(y / x);
+        if (x < 0) {
+            result += Float.floatToRawIntBits(y) >= 0 ? PI : -PI; // the sign bit, so that y = -0 gives -pi
+        }
+        return result;
+    }
+
+    static float fastAtan(float x) {
+        boolean negative = Float.floatToRawIntBits(x) < 0; // atan(-0) = -0
+        float t = Math.abs(x);
+        float offset;
+        if (t > TAN_3PI_8) {
+            offset = PI_2;
+            t = -1.0f / t;
+        } else if (t > TAN_PI_8) {
+            offset = PI_4;
+            t = (t - 1.0f) / (t + 1.0f);
+        } else {
+            offset = 0.0f;
+        }
+        float z = t * t;
+        float result = offset + ((((8.05374449538e-2f * z - 1.38776856032e-1f) * z + 1.99777106478e-1f) * z
+                - 3.33329491539e-1f) * z * t + t);
+        return negative ? -result : result;
+    }
+
+    // The Cephes asinf polynomial, with asin(x) = pi/2 - 2 asin(sqrt((1 - x) / 2)) above 0.5.
+    static float fastAsin(float x) {
+        float a = Math.abs(x);
+        float result;
+        if (a > 0.5f) {
+            float z = 0.5f * (1.0f - a);
+            float s = (float) Math.sqrt(z);
+            result = PI_2 - 2.0f * (s + s * z * asinPolynomial(z));
+        } else {
+            float z = a * a;
+            result = a + a * z * asinPolynomial(z);
+        }
+        return x < 0 ? -result : result;
+    }
+
+    private static float asinPolynomial(float z) {
+        return (((4.2163199048e-2f * z + 2.4181311049e-2f) * z + 4.5470025998e-2f) * z + 7.4953002686e-2f) * z
+                + 1.6666752422e-1f;
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Accuracy of FusionMath.FAST against FusionMath.EXACT: the worst error of every approximation over its argument
+ * range, of the orientation angles of a capture and of the linear acceleration LinearAcceleration exports for it.
+ *
+ * Usage: FusionMathReport [log file]
+ */
+public class FusionMathReport {
+    private static final int SWEEP_POINTS = 2000000;
+    private static final int GRAVITY_GRID = 1000;
+
+    private double maxError;
+    private double sumError;
+    private long count;
+    private float worstArgument;
+
+    private void add(double exact, double fast, float argument) {
+        double error = Math.abs(exact - fast);
+        if (error > maxError) {
+            maxError = error;
+            worstArgument = argument;
+        }
+        sumError += error;
+        count++;
+    }
+
+    private void print(String name, String range, String unit) {
+        System.out.println(String.format("%-20s %-26s max %.3e %s (at %s), mean %.3e", name, range, maxError, unit,
+                worstArgument, sumError / Math.max(count, 1)));
+        maxError = 0;
+        sumError = 0;
+        count = 0;
+    }
+
+    private void sweepFunctions() {
+        float limit = (float) (4 * Math.PI);
+        for (int i = 0; i <= SWEEP_POINTS; i++) {
+            float x = -limit + 2 * limit * i / SWEEP_POINTS;
+            add(FusionMath.EXACT.sin(x), FusionMath.FAST.sin(x), x);
+        }
+        print("sin", "[-4pi, 4pi]", "");
+        for (int i = 0; i <= SWEEP_POINTS; i++) {
+            float x = -limit + 2 * limit * i / SWEEP_POINTS;
+            add(FusionMath.EXACT.cos(x), FusionMath.FAST.cos(x), x);
+        }
+        print("cos", "[-4pi, 4pi]", "");
+        for (int i = 0; i <= SWEEP_POINTS; i++) {
+            // Every direction, at radii spread over a few decades.
+            double angle = -Math.PI + 2 * Math.PI * i / SWEEP_POINTS;
+            double radius = Math.pow(10, (i % 7) - 3);
+            float y = (float) (radius * Math.sin(angle));
+            float x = (float) (radius * Math.cos(angle));
+            add(FusionMath.EXACT.atan2(y, x), FusionMath.FAST.atan2(y, x), (float) angle);
+        }
+        print("atan2", "all directions", "rad");
+        for (int i = 0; i <= SWEEP_POINTS; i++) {
+            float x = -1.0f + 2.0f * i / SWEEP_POINTS;
+            add(FusionMath.EXACT.asin(x), FusionMath.FAST.asin(x), x);
+        }
+        print("asin", "[-1, 1]", "rad");
+
+        float[] exact = new float[3];
+        float[] fast = new float[3];
+        for (int i = 0; i <= GRAVITY_GRID; i++) {
+            float pitch = (float) (-Math.PI + 2 * Math.PI * i / GRAVITY_GRID);
+            for (int j = 0; j <= GRAVITY_GRID; j++) {
+                float roll = (float) (-Math.PI + 2 * Math.PI * j / GRAVITY_GRID);
+                FusionMath.EXACT.gravity(pitch, roll, exact);
+                FusionMath.FAST.gravity(pitch, roll, fast);
+                for (int axis = 0; axis < 3; axis++) {
+                    add(exact[axis], fast[axis], pitch);
+                }
+            }
+        }
+        print("gravity", "pitch, roll in [-pi, pi]", "m/s^2");
+    }
+
+    private void compareCapture(String fileName) throws IOException {
+        File exactFile = File.createTempFile("fusion-exact", ".dat");
+        File fastFile = File.createTempFile("fusion-fast", ".dat");
+        Exporter exactExporter = new Exporter(exactFile.getPath());
+        Exporter fastExporter = new Exporter(fastFile.getPath());
+        LinearAcceleration exactEngine = new LinearAcceleration(exactExporter, FusionMath.EXACT);
+        LinearAcceleration fastEngine = new LinearAcceleration(fastExporter, FusionMath.FAST);
+
+        SensorSingleData exactSample = new SensorSingleData();
+        SensorSingleData fastSample = new SensorSingleData();
+        float[] gravity = new float[3];
+        float[] magnetic = new float[3];
+        float[] rotationMatrix = new float[9];
+        float[] exactOrientation = new float[3];
+        float[] fastOrientation = new float[3];
+
+        double orientationMax = 0;
+        double orientationSum = 0;
+        long orientationCount = 0;
+
+        SensorSource source = new Importer().openSource(fileName);
+        try {
+            while (source.next(exactSample)) {
+                // Orientation angles straight from the accelerometer and magnetometer readings.
+                gravity[0] = exactSample.getAccX();
+                gravity[1] = exactSample.getAccY();
+                gravity[2] = exactSample.getAccZ();
+                magnetic[0] = exactSample.getMagnX();
+                magnetic[1] = exactSample.getMagnY();
+                magnetic[2] = exactSample.getMagnZ();
+                if (LinearAcceleration.getRotationMatrix(rotationMatrix, null, gravity, magnetic)) {
+                    LinearAcceleration.getOrientation(rotationMatrix, exactOrientation, FusionMath.EXACT);
+                    LinearAcceleration.getOrientation(rotationMatrix, fastOrientation, FusionMath.FAST);
+                    for (int axis = 0; axis < 3; axis++) {
+                        double error = Math.abs(exactOrientation[axis] - fastOrientation[axis]);
+                        orientationMax = Math.max(orientationMax, error);
+                        orientationSum += error;
+                        orientationCount++;
+                    }
+                }
+
+                fastSample.copyFrom(exactSample);
+                exactEngine.onSensorUpdate(exactSample);
+                fastEngine.onSensorUpdate(fastSample);
+                add(exactSample.getAccX(), fastSample.getAccX(), exactSample.getGeneration());
+                add(exactSample.getAccY(), fastSample.getAccY(), exactSample.getGeneration());
+                add(exactSample.getAccZ(), fastSample.getAccZ(), exactSample.getGeneration());
+            }
+        } finally {
+            source.close();
+            exactExporter.close();
+            fastExporter.close();
+            exactFile.delete();
+            fastFile.delete();
+        }
+
+        System.out.println(String.format("%-20s %-26s max %.3e rad, mean %.3e (%.2f / %.2f micro-radians)",
+                "orientation", fileName, orientationMax, orientationSum / Math.max(orientationCount, 1),
+                orientationMax * 1e6, orientationSum / Math.max(orientationCount, 1) * 1e6));
+        print("linear acceleration", fileName, "m/s^2");
+    }
+
+    public static void main(String[] args) throws IOException {
+        String fileName = args.length > 0 ? args[0] : Constants.SENSOR_FILE_IMPORT;
+        FusionMathReport report = new FusionMathReport();
+        report.sweepFunctions();
+        report.compareCapture(fileName);
+    }
+}
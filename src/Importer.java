@@ -5,6 +5,9 @@ import com.google.common.io.LineProcessor;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 public class Importer {
@@ -30,5 +33,42 @@ public class Importer {
         }
         return sensorDataLines;
     }
+
+    // Streaming alternative to readData: lines are read in chunks as the cursor advances.
+    public LineCursor openCursor() throws IOException {
+        return LineCursor.open(Constants.SENSOR_FILE_IMPORT);
+    }
+
+    public SensorSource openSource() throws IOException {
+        return openSource(Constants.SENSOR_FILE_IMPORT);
+    }
+
+    // Opens a binary log with the memory-mapped reader, anything else as text.
+    public SensorSource openSource(String fileName) throws IOException {
+        return openSource(fileName, 0);
+    }
+
+    // As above, resuming at a SensorSource.position() of an earlier source over the same file.
+    public SensorSource openSource(String fileName, long position) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+        try {
+            channel.read(magic);
+        } finally {
+            channel.close();
+        }
+        magic.flip();
+        if (BinarySensorLog.isBinary(magic)) {
+            BinarySensorLogReader reader = new BinarySensorLogReader(fileName);
+            try {
+                reader.seek(position);
+            } catch (IllegalArgumentException e) {
+                reader.close();
+                throw e;
+            }
+            return reader;
+        }
+        return TextSensorSource.open(fileName, position);
+    }
 }
 
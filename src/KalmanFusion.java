@@ -0,0 +1,312 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Extended Kalman filter alternative to the fixed FILTER_COEFFICIENT complementary filter of LinearAcceleration.
+ * The state is the orientation quaternion [x, y, z, w] plus the gyro bias, seven values with a 7x7 covariance. The
+ * gyro, less the estimated bias, drives the prediction, and the accelerometer/magnetometer orientation is the
+ * measurement, weighted by how uncertain the prediction has become instead of by a constant.
+ *
+ * The matrices are fixed size and kept in preallocated arrays, and the kernels below exploit their shape: the
+ * transition matrix is the identity below its first four rows, and the measurement picks one quaternion component
+ * at a time, so the update is four scalar updates with no matrix inverse. Nothing is allocated per sample.
+ *
+ * Unlike the other two engines, the gyro is integrated with the dT column of the sample, and the measurement takes
+ * gravity from the (filtered) accelerometer rather than from the gyro delta rotation.
+ */
+public class KalmanFusion implements SensorListener, Checkpointable {
+    static final int STATES = 7; // quaternion x, y, z, w, then gyro bias x, y, z
+
+    // Noise, as standard deviations.
+    private static final double GYRO_NOISE = 0.05; // rad/s
+    private static final double BIAS_NOISE = 0.001; // rad/s per root second
+    private static final double MEASUREMENT_NOISE = 0.05; // per quaternion component
+    private static final double INITIAL_BIAS = 0.05; // rad/s
+
+    private final SensorFilter gravityFilter;
+    private final SensorFilter magneticFilter;
+    private final SensorFilter accelerationFilter;
+    private final SensorFilter linearAccelerationFilter;
+
+    private final Exporter exporter;
+    private final FusionMath math;
+    private final PipelineStats stats = PipelineStats.getInstance();
+
+    private boolean hasOrientation = false;
+    private boolean initState = false;
+
+    private final float[] attitude = new float[4];
+    private final float[] bias = new float[3];
+    private final double[] covariance = new double[STATES * STATES];
+    private final float[] measured = new float[4]; // last orientation from accelerometer and magnetometer
+
+    // Scratch state reused on every sample.
+    private final double[] transition = new double[4 * STATES]; // first four rows of F
+    private final double[] product = new double[4 * STATES];
+    private final double[] row = new double[STATES];
+    private final float[] acceleration = new float[3];
+    private final float[] magnetic = new float[3];
+    private final float[] gyroscope = new float[3];
+    private final float[] gravity = new float[3];
+    private final float[] deltaRotation = new float[4];
+    private final float[] rotationMatrix = new float[9];
+    private final float[] predicted = new float[4];
+    private final float[] components = new float[3]; // gravity removed from the acceleration
+    private final float[] linearAcceleration = new float[3];
+
+    public KalmanFusion(Exporter exporter) {
+        this(exporter, FusionMath.EXACT);
+    }
+
+    public KalmanFusion(Exporter exporter, FusionMath math) {
+        this(exporter, math, new SensorFilters());
+    }
+
+    public KalmanFusion(Exporter exporter, FusionMath math, SensorFilters filters) {
+        gravityFilter = filters.create(SensorFilters.Channel.GRAVITY);
+        magneticFilter = filters.create(SensorFilters.Channel.MAGNETIC);
+        accelerationFilter = filters.create(SensorFilters.Channel.ACCELERATION);
+        linearAccelerationFilter = filters.create(SensorFilters.Channel.LINEAR_ACCELERATION);
+
+        attitude[3] = 1.0f;
+
+        this.exporter = exporter;
+        this.math = math;
+    }
+
+    @Override
+    public void onSensorUpdate(SensorSingleData singleData) {
+        long start = PipelineMetrics.record(PipelineMetrics.Stage.TRANSPORT, singleData.getPublishNanos());
+        stats.onReceived();
+        acceleration[0] = singleData.getAccX();
+        acceleration[1] = singleData.getAccY();
+        acceleration[2] = singleData.getAccZ();
+        magnetic[0] = singleData.getMagnX();
+        magnetic[1] = singleData.getMagnY();
+        magnetic[2] = singleData.getMagnZ();
+
+        accelerationFilter.filterFloat(acceleration, acceleration);
+        magneticFilter.filterFloat(magnetic, magnetic);
+        gravityFilter.filterFloat(acceleration, gravity);
+        start = PipelineMetrics.record(PipelineMetrics.Stage.FILTER, start);
+
+        if (LinearAcceleration.getRotationMatrix(rotationMatrix, null, gravity, magnetic)) {
+            QuaternionFusion.fromRotationMatrix(rotationMatrix, measured);
+            hasOrientation = true;
+        } else {
+            stats.onRotationRejected();
+        }
+
+        // don't start until first accelerometer/magnetometer orientation has been acquired
+        if (!hasOrientation) {
+            stats.onWithoutOrientation();
+            return;
+        }
+        if (!initState) {
+            initialize();
+            initState = true;
+        } else {
+            predict(singleData, Math.max(singleData.getTimestamp(), 0) * LinearAcceleration.NS2S);
+            update();
+        }
+
+        stats.onFused();
+        QuaternionFusion.subtractGravity(acceleration, attitude, components, linearAcceleration);
+        linearAccelerationFilter.filterFloat(linearAcceleration, linearAcceleration);
+        start = PipelineMetrics.record(PipelineMetrics.Stage.FUSION, start);
+        singleData.setAccX(linearAcceleration[0]);
+        singleData.setAccY(linearAcceleration[1]);
+        singleData.setAccZ(linearAcceleration[2]);
+        exporter.writeRecord(singleData, attitude, components);
+        stats.onExported();
+        PipelineMetrics.record(PipelineMetrics.Stage.EXPORT, start);
+        PipelineMetrics.record(PipelineMetrics.Stage.END_TO_END, singleData.getPublishNanos());
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(hasOrientation);
+        out.writeBoolean(initState);
+        Checkpoint.writeFloats(out, attitude);
+        Checkpoint.writeFloats(out, bias);
+        Checkpoint.writeDoubles(out, covariance);
+        Checkpoint.writeFloats(out, measured);
+        gravityFilter.writeState(out);
+        magneticFilter.writeState(out);
+        accelerationFilter.writeState(out);
+        linearAccelerationFilter.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        hasOrientation = in.readBoolean();
+        initState = in.readBoolean();
+        Checkpoint.readFloats(in, attitude);
+        Checkpoint.readFloats(in, bias);
+        Checkpoint.readDoubles(in, covariance);
+        Checkpoint.readFloats(in, measured);
+        gravityFilter.readState(in);
+        magneticFilter.readState(in);
+        accelerationFilter.readState(in);
+        linearAccelerationFilter.readState(in);
+    }
+
+    // Start at the measured orientation, with no bias and the uncertainty of one measurement.
+    private void initialize() {
+        System.arraycopy(measured, 0, attitude, 0, 4);
+        for (int i = 0; i < STATES * STATES; i++) {
+            covariance[i] = 0;
+        }
+        for (int i = 0; i < 4; i++) {
+            covariance[i * STATES + i] = MEASUREMENT_NOISE * MEASUREMENT_NOISE;
+        }
+        for (int i = 4; i < STATES; i++) {
+            bias[i - 4] = 0;
+            covariance[i * STATES + i] = INITIAL_BIAS * INITIAL_BIAS;
+        }
+    }
+
+    private void predict(SensorSingleData singleData, float dT) {
+        gyroscope[0] = singleData.getGyroX() - bias[0];
+        gyroscope[1] = singleData.getGyroY() - bias[1];
+        gyroscope[2] = singleData.getGyroZ() - bias[2];
+        LinearAcceleration.getRotationVectorFromGyro(gyroscope, dT / 2.0f, deltaRotation, math);
+
+        setTransition(attitude, deltaRotation, dT, transition);
+        propagate(transition, covariance, product);
+        addProcessNoise(attitude, dT, covariance);
+
+        QuaternionFusion.multiply(attitude, deltaRotation, predicted);
+        System.arraycopy(predicted, 0, attitude, 0, 4);
+        normalize(attitude);
+    }
+
+    private void update() {
+        // q and -q are the same rotation; measure the one on the side of the estimate.
+        float dot = measured[0] * attitude[0] + measured[1] * attitude[1] + measured[2] * attitude[2]
+                + measured[3] * attitude[3];
+        float sign = dot < 0 ? -1.0f : 1.0f;
+        double noise = MEASUREMENT_NOISE * MEASUREMENT_NOISE;
+        for (int i = 0; i < 4; i++) {
+            double innovation = sign * measured[i] - attitude[i];
+            double gain = 1.0 / (covariance[i * STATES + i] + noise);
+            for (int j = 0; j < STATES; j++) {
+                row[j] = covariance[i * STATES + j];
+            }
+            for (int j = 0; j < STATES; j++) {
+                double k = row[j] * gain;
+                if (j < 4) {
+                    attitude[j] += (float) (k * innovation);
+                } else {
+                    bias[j - 4] += (float) (k * innovation);
+                }
+                for (int m = 0; m < STATES; m++) {
+                    covariance[j * STATES + m] -= k * row[m];
+                }
+            }
+        }
+        normalize(attitude);
+    }
+
+    /**
+     * The first four rows of the Jacobian of q * delta(gyro - bias) with respect to [q, bias]: the right product with
+     * delta on the quaternion and -dT / 2 * Xi(q) on the bias, where Xi(q) v is the quaternion product of q and the
+     * pure quaternion [v, 0].
+     */
+    static void setTransition(float[] q, float[] delta, float dT, double[] F) {
+        float x = q[0];
+        float y = q[1];
+        float z = q[2];
+        float w = q[3];
+        double h = -dT / 2.0;
+
+        F[0] = delta[3];
+        F[1] = delta[2];
+        F[2] = -delta[1];
+        F[3] = delta[0];
+        F[4] = h * w;
+        F[5] = -h * z;
+        F[6] = h * y;
+
+        F[7] = -delta[2];
+        F[8] = delta[3];
+        F[9] = delta[0];
+        F[10] = delta[1];
+        F[11] = h * z;
+        F[12] = h * w;
+        F[13] = -h * x;
+
+        F[14] = delta[1];
+        F[15] = -delta[0];
+        F[16] = delta[3];
+        F[17] = delta[2];
+        F[18] = -h * y;
+        F[19] = h * x;
+        F[20] = h * w;
+
+        F[21] = -delta[0];
+        F[22] = -delta[1];
+        F[23] = -delta[2];
+        F[24] = delta[3];
+        F[25] = -h * x;
+        F[26] = -h * y;
+        F[27] = -h * z;
+    }
+
+    /**
+     * P = F P F' in place, where F holds the first four rows of the transition matrix and the rest is the identity:
+     * only the quaternion rows and columns of P change. FP is 4x7 scratch.
+     */
+    static void propagate(double[] F, double[] P, double[] FP) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < STATES; j++) {
+                double s = 0;
+                for (int k = 0; k < STATES; k++) {
+                    s += F[i * STATES + k] * P[k * STATES + j];
+                }
+                FP[i * STATES + j] = s;
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            for (int j = i; j < 4; j++) {
+                double s = 0;
+                for (int k = 0; k < STATES; k++) {
+                    s += FP[i * STATES + k] * F[j * STATES + k];
+                }
+                P[i * STATES + j] = s;
+                P[j * STATES + i] = s;
+            }
+            for (int j = 4; j < STATES; j++) {
+                P[i * STATES + j] = FP[i * STATES + j];
+                P[j * STATES + i] = FP[i * STATES + j];
+            }
+        }
+    }
+
+    // Gyro noise reaches the quaternion through Xi(q), and Xi(q) Xi(q)' = I - q q' for a unit q.
+    static void addProcessNoise(float[] q, float dT, double[] P) {
+        double gyro = GYRO_NOISE * GYRO_NOISE * dT * dT / 4;
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                P[i * STATES + j] += gyro * ((i == j ? 1 : 0) - q[i] * q[j]);
+            }
+        }
+        double drift = BIAS_NOISE * BIAS_NOISE * dT;
+        for (int i = 4; i < STATES; i++) {
+            P[i * STATES + i] += drift;
+        }
+    }
+
+    private static void normalize(float[] q) {
+        float invNorm = 1.0f / (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        q[0] *= invNorm;
+        q[1] *= invNorm;
+        q[2] *= invNorm;
+        q[3] *= invNorm;
+    }
+
+    float[] getBias() {
+        return bias;
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forward-only cursor over the lines of a channel. The channel is read in fixed chunks, so memory use is bounded by
+ * the chunk size (or the longest line) no matter how large the file is. The current line is exposed as a
+ * [lineStart(), lineEnd()) window of buffer() with surrounding whitespace trimmed; blank lines are skipped.
+ */
+public class LineCursor implements Closeable {
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private long bufferOffset; // file offset of buffer[0]
+    private int limit;
+    private int nextStart;
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+    private boolean eof;
+
+    public LineCursor(ReadableByteChannel channel) throws IOException {
+        this(channel, CHUNK_SIZE);
+    }
+
+    public LineCursor(ReadableByteChannel channel, int chunkSize) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(chunkSize);
+        this.bufferOffset = channel instanceof FileChannel ? ((FileChannel) channel).position() : 0;
+    }
+
+    public static LineCursor open(String fileName) throws IOException {
+        return new LineCursor(FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Advance to the next non-blank line.
+     *
+     * @return false once the channel is exhausted
+     */
+    public boolean next() throws IOException {
+        int scan = nextStart;
+        while (true) {
+            int newline = -1;
+            for (int i = scan; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+
+            int end;
+            if (newline >= 0) {
+                end = newline;
+            } else if (eof) {
+                if (nextStart == limit) {
+                    return false;
+                }
+                end = limit;
+            } else {
+                scan = limit - nextStart;
+                fill();
+                continue;
+            }
+
+            lineNumber++;
+            lineStart = nextStart;
+            lineEnd = end;
+            nextStart = newline >= 0 ? newline + 1 : limit;
+            scan = nextStart;
+            while (lineStart < lineEnd && isWhitespace(buffer.get(lineStart))) {
+                lineStart++;
+            }
+            while (lineEnd > lineStart && isWhitespace(buffer.get(lineEnd - 1))) {
+                lineEnd--;
+            }
+            if (lineStart < lineEnd) {
+                return true;
+            }
+        }
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int lineStart() {
+        return lineStart;
+    }
+
+    public int lineEnd() {
+        return lineEnd;
+    }
+
+    // 1-based number of the current line, counting blank lines.
+    public long lineNumber() {
+        return lineNumber;
+    }
+
+    // Offset of the first character of the current line, relative to where the channel started.
+    public long lineOffset() {
+        return bufferOffset + lineStart;
+    }
+
+    // Offset just past the current line's terminator, i.e. where reading resumes.
+    public long nextOffset() {
+        return bufferOffset + nextStart;
+    }
+
+    public String line() {
+        byte[] bytes = new byte[lineEnd - lineStart];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(lineStart + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Move the unfinished line to the front of the buffer and read the next chunk behind it.
+    private void fill() throws IOException {
+        if (nextStart == 0 && limit == buffer.capacity()) {
+            // A single line longer than the buffer; only happens on malformed input.
+            ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            buffer.position(0).limit(limit);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.position(nextStart).limit(limit);
+            buffer.compact();
+            bufferOffset += nextStart;
+        }
+        nextStart = 0;
+        lineStart = 0;
+        lineEnd = 0;
+
+        int read = channel.read(buffer);
+        if (read < 0) {
+            eof = true;
+        }
+        limit = buffer.position();
+        buffer.clear();
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
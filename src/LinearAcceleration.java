@@ -39,10 +39,14 @@
 
 import com.google.common.eventbus.Subscribe;
 
-public class LinearAcceleration {
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class LinearAcceleration implements SensorListener, Checkpointable {
     public static final float FILTER_COEFFICIENT = 0.5f;
     public static final float EPSILON = 0.000000001f;
-    private static final float NS2S = 1.0f / 1000000000.0f;
+    static final float NS2S = 1.0f / 1000000000.0f;
 
     private boolean hasOrientation = false;
 
@@ -61,17 +65,30 @@ public class LinearAcceleration {
     private float[] gravityOrientation = new float[3]; // gravity on x, y, z axis
     private float[] deltaRotationVector = new float[4]; // convert the raw gyro data into a rotation vector
     private float[] deltaMatrix = new float[9]; // convert rotation vector into rotation matrix
+    private float[] attitude = new float[4]; // fused orientation as a quaternion, for exporters that keep it
+
+    // Scratch state reused on every sample so the steady-state path does not allocate.
+    private float[] accelerationSample = new float[3];
+    private float[] magneticSample = new float[3];
+    private float[] productMatrix = new float[9];
+    private float[] xM = new float[9];
+    private float[] yM = new float[9];
+    private float[] zM = new float[9];
+    private float[] xyM = new float[9];
 
     private long timeStamp;
     private boolean initState = false;
+    private long stageStart; // PipelineMetrics
+    private final PipelineStats stats = PipelineStats.getInstance();
 
-    private MeanFilter meanFilterGravity;
-    private MeanFilter meanFilterMagnetic;
-    private MeanFilter meanFilterAcceleration;
-    private MeanFilter meanFilterLinearAcceleration;
+    private SensorFilter gravityFilter;
+    private SensorFilter magneticFilter;
+    private SensorFilter accelerationFilter;
+    private SensorFilter linearAccelerationFilter;
 
     private Exporter exporter;
     private SensorSingleData singleData;
+    private final FusionMath math;
 
     /**
      * Initialize a singleton instance.
@@ -80,18 +97,32 @@ public class LinearAcceleration {
      * magneticSubject the magnetic subject.
      */
     public LinearAcceleration() {
-        super();
-        meanFilterGravity = new MeanFilter();
-        meanFilterGravity.setWindowSize(10);
+        this(new Exporter());
+        registerBus();
+    }
 
-        meanFilterMagnetic = new MeanFilter();
-        meanFilterMagnetic.setWindowSize(10);
+    /**
+     * Create an instance that is not registered on the global bus; samples are delivered by calling onSensorUpdate,
+     * for example from a RingBufferTransport.
+     */
+    public LinearAcceleration(Exporter exporter) {
+        this(exporter, FusionMath.EXACT);
+    }
 
-        meanFilterAcceleration = new MeanFilter();
-        meanFilterAcceleration.setWindowSize(10);
+    /**
+     * As above, computing the trigonometry with math; FusionMath.FAST trades about a float ulp for speed.
+     */
+    public LinearAcceleration(Exporter exporter, FusionMath math) {
+        this(exporter, math, new SensorFilters());
+    }
 
-        meanFilterLinearAcceleration = new MeanFilter();
-        meanFilterLinearAcceleration.setWindowSize(10);
+    // As above, smoothing each channel with the filter configured in filters.
+    public LinearAcceleration(Exporter exporter, FusionMath math, SensorFilters filters) {
+        super();
+        gravityFilter = filters.create(SensorFilters.Channel.GRAVITY);
+        magneticFilter = filters.create(SensorFilters.Channel.MAGNETIC);
+        accelerationFilter = filters.create(SensorFilters.Channel.ACCELERATION);
+        linearAccelerationFilter = filters.create(SensorFilters.Channel.LINEAR_ACCELERATION);
 
         gyroOrientation[0] = 0.0f;
         gyroOrientation[1] = 0.0f;
@@ -108,8 +139,8 @@ public class LinearAcceleration {
         gyroMatrix[7] = 0.0f;
         gyroMatrix[8] = 1.0f;
 
-        exporter = new Exporter();
-        registerBus();
+        this.exporter = exporter;
+        this.math = math;
     }
 
     private void registerBus() {
@@ -117,29 +148,39 @@ public class LinearAcceleration {
     }
 
     public void prepareToExport() {
+        long start = PipelineMetrics.record(PipelineMetrics.Stage.FUSION, stageStart);
         singleData.setAccX(linearAcceleration[0]);
         singleData.setAccY(linearAcceleration[1]);
         singleData.setAccZ(linearAcceleration[2]);
         exportNewSensorData(singleData);
+        PipelineMetrics.record(PipelineMetrics.Stage.EXPORT, start);
+        PipelineMetrics.record(PipelineMetrics.Stage.END_TO_END, singleData.getPublishNanos());
     }
 
     @Subscribe
+    @Override
     public void onSensorUpdate(SensorSingleData singleData) {
         startProcess(singleData);
     }
 
     private void startProcess(SensorSingleData singleData) {
+        long start = PipelineMetrics.record(PipelineMetrics.Stage.TRANSPORT, singleData.getPublishNanos());
+        stats.onReceived();
         this.singleData = singleData;
 
-        float[] acceleration = new float[]{this.singleData.getAccX(), this.singleData.getAccY(), this.singleData
-                .getAccZ()};
-        float[] magnetic = new float[]{this.singleData.getMagnX(), this.singleData.getMagnY(), this.singleData
-                .getMagnZ()};
-        this.gyroscope = new float[]{this.singleData.getGyroX(), this.singleData.getGyroY(), this.singleData
-                .getGyroZ()};
-
-        onAccelerationSensorChanged(acceleration);
-        onMagneticSensorChanged(magnetic);
+        accelerationSample[0] = this.singleData.getAccX();
+        accelerationSample[1] = this.singleData.getAccY();
+        accelerationSample[2] = this.singleData.getAccZ();
+        magneticSample[0] = this.singleData.getMagnX();
+        magneticSample[1] = this.singleData.getMagnY();
+        magneticSample[2] = this.singleData.getMagnZ();
+        gyroscope[0] = this.singleData.getGyroX();
+        gyroscope[1] = this.singleData.getGyroY();
+        gyroscope[2] = this.singleData.getGyroZ();
+
+        onAccelerationSensorChanged(accelerationSample);
+        onMagneticSensorChanged(magneticSample);
+        stageStart = PipelineMetrics.record(PipelineMetrics.Stage.FILTER, start);
         float dT = (this.singleData.getTimestamp() - this.timeStamp) * NS2S;
         getRotationVectorFromGyro(dT / 2.0f);
         this.timeStamp = this.singleData.getTimestamp();
@@ -148,15 +189,57 @@ public class LinearAcceleration {
         onGyroscopeSensorChanged(this.gyroscope, this.timeStamp);
     }
 
+    // Everything that carries over from one sample to the next; the rest is recomputed from each sample.
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(hasOrientation);
+        out.writeBoolean(initState);
+        out.writeLong(timeStamp);
+        Checkpoint.writeFloats(out, gyroMatrix);
+        Checkpoint.writeFloats(out, gyroOrientation);
+        Checkpoint.writeFloats(out, orientation);
+        Checkpoint.writeFloats(out, fusedOrientation);
+        Checkpoint.writeFloats(out, rotationMatrix);
+        Checkpoint.writeFloats(out, deltaRotationVector);
+        gravityFilter.writeState(out);
+        magneticFilter.writeState(out);
+        accelerationFilter.writeState(out);
+        linearAccelerationFilter.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        hasOrientation = in.readBoolean();
+        initState = in.readBoolean();
+        timeStamp = in.readLong();
+        Checkpoint.readFloats(in, gyroMatrix);
+        Checkpoint.readFloats(in, gyroOrientation);
+        Checkpoint.readFloats(in, orientation);
+        Checkpoint.readFloats(in, fusedOrientation);
+        Checkpoint.readFloats(in, rotationMatrix);
+        Checkpoint.readFloats(in, deltaRotationVector);
+        gravityFilter.readState(in);
+        magneticFilter.readState(in);
+        accelerationFilter.readState(in);
+        linearAccelerationFilter.readState(in);
+    }
+
     private void exportNewSensorData(SensorSingleData newSensorData) {
-        exporter.writeData(newSensorData.toString());
+        if (exporter.keepsOrientation()) {
+            // gyroMatrix holds the fused orientation by now
+            QuaternionFusion.fromRotationMatrix(gyroMatrix, attitude);
+        }
+        exporter.writeRecord(newSensorData, attitude, components);
+        stats.onExported();
     }
 
     // Calculates orientation angles from accelerometer and magnetometer output.
     private void calculateOrientation() {
         if (getRotationMatrix(rotationMatrix, null, gravity, magnetic)) {
-            getOrientation(rotationMatrix, orientation);
+            getOrientation(rotationMatrix, orientation, math);
             hasOrientation = true;
+        } else {
+            stats.onRotationRejected();
         }
     }
 
@@ -167,20 +250,22 @@ public class LinearAcceleration {
      * rotations can be found in Wikipedia with the caveat that the rotations
      * are *transposed* relative to what is required for this method.
      * The device orientation.
-     * The rotation matrix from the orientation.
+     * The rotation matrix from the orientation is written into result; xM, yM, zM and xyM are scratch matrices.
      * http://en.wikipedia.org/wiki/Rotation_matrix
      */
-    private float[] getRotationMatrixFromOrientation(float[] orientation) {
-        float[] xM = new float[9];
-        float[] yM = new float[9];
-        float[] zM = new float[9];
-
-        float sinX = (float) Math.sin(orientation[1]);
-        float cosX = (float) Math.cos(orientation[1]);
-        float sinY = (float) Math.sin(orientation[2]);
-        float cosY = (float) Math.cos(orientation[2]);
-        float sinZ = (float) Math.sin(orientation[0]);
-        float cosZ = (float) Math.cos(orientation[0]);
+    static float[] getRotationMatrixFromOrientation(float[] orientation, float[] result, float[] xM, float[] yM,
+                                                    float[] zM, float[] xyM) {
+        return getRotationMatrixFromOrientation(orientation, result, xM, yM, zM, xyM, FusionMath.EXACT);
+    }
+
+    static float[] getRotationMatrixFromOrientation(float[] orientation, float[] result, float[] xM, float[] yM,
+                                                    float[] zM, float[] xyM, FusionMath math) {
+        float sinX = math.sin(orientation[1]);
+        float cosX = math.cos(orientation[1]);
+        float sinY = math.sin(orientation[2]);
+        float cosY = math.cos(orientation[2]);
+        float sinZ = math.sin(orientation[0]);
+        float cosZ = math.cos(orientation[0]);
 
         // rotation about x-axis (pitch)
         xM[0] = 1.0f;
@@ -216,12 +301,11 @@ public class LinearAcceleration {
         zM[8] = 1.0f;
 
         // Build the composite rotation... rotation order is y, x, z (roll, pitch, azimuth)
-        float[] resultMatrix = matrixMultiplication(xM, yM);
-        resultMatrix = matrixMultiplication(zM, resultMatrix);
-        return resultMatrix;
+        matrixMultiplication(xM, yM, xyM);
+        return matrixMultiplication(zM, xyM, result);
     }
 
-    private static boolean getRotationMatrix(float[] R, float[] I, float[] gravity, float[] geomagnetic) {
+    static boolean getRotationMatrix(float[] R, float[] I, float[] gravity, float[] geomagnetic) {
         float Ax = gravity[0];
         float Ay = gravity[1];
         float Az = gravity[2];
@@ -310,7 +394,7 @@ public class LinearAcceleration {
         return true;
     }
 
-    private static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
+    static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
 
         float q0;
         float q1 = rotationVector[0];
@@ -370,10 +454,19 @@ public class LinearAcceleration {
      * timeFactor
      */
     private void getRotationVectorFromGyro(float timeFactor) {
+        getRotationVectorFromGyro(gyroscope, timeFactor, deltaRotationVector, math);
+    }
+
+    // Normalizes gyroscope in place and writes the delta rotation quaternion into deltaRotationVector.
+    static void getRotationVectorFromGyro(float[] gyroscope, float timeFactor, float[] deltaRotationVector) {
+        getRotationVectorFromGyro(gyroscope, timeFactor, deltaRotationVector, FusionMath.EXACT);
+    }
+
+    static void getRotationVectorFromGyro(float[] gyroscope, float timeFactor, float[] deltaRotationVector,
+                                          FusionMath math) {
 
         // Calculate the angular speed of the sample
-        float omegaMagnitude = (float) Math.sqrt(Math.pow(gyroscope[0], 2)
-                + Math.pow(gyroscope[1], 2) + Math.pow(gyroscope[2], 2));
+        float omegaMagnitude = math.magnitude(gyroscope[0], gyroscope[1], gyroscope[2]);
 
         // Normalize the rotation vector if it's big enough to get the axis
         if (omegaMagnitude > EPSILON) {
@@ -387,8 +480,8 @@ public class LinearAcceleration {
         // We will convert this axis-angle representation of the delta rotation
         // into a quaternion before turning it into the rotation matrix.
         float thetaOverTwo = omegaMagnitude * timeFactor;
-        float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
-        float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
+        float sinThetaOverTwo = math.sin(thetaOverTwo);
+        float cosThetaOverTwo = math.cos(thetaOverTwo);
 
         deltaRotationVector[0] = sinThetaOverTwo * gyroscope[0];
         deltaRotationVector[1] = sinThetaOverTwo * gyroscope[1];
@@ -397,6 +490,10 @@ public class LinearAcceleration {
     }
 
     private void getGravityVector(float[] deltaRotationVector) {
+        getGravityVector(deltaRotationVector, gravity);
+    }
+
+    static void getGravityVector(float[] deltaRotationVector, float[] gravity) {
         float q0 = deltaRotationVector[0];
         float q1 = deltaRotationVector[1];
         float q2 = deltaRotationVector[2];
@@ -411,10 +508,8 @@ public class LinearAcceleration {
         gravity[2] = gz;
     }
 
-    //  Multiply A by B
-    private float[] matrixMultiplication(float[] A, float[] B) {
-        float[] result = new float[9];
-
+    //  Multiply A by B into result, which must not alias A or B
+    static float[] matrixMultiplication(float[] A, float[] B, float[] result) {
         result[0] = A[0] * B[0] + A[1] * B[3] + A[2] * B[6];
         result[1] = A[0] * B[1] + A[1] * B[4] + A[2] * B[7];
         result[2] = A[0] * B[2] + A[1] * B[5] + A[2] * B[8];
@@ -435,20 +530,20 @@ public class LinearAcceleration {
         System.arraycopy(acceleration, 0, this.acceleration, 0,
                 acceleration.length);
 
-        this.acceleration = meanFilterAcceleration.filterFloat(this.acceleration);
+        accelerationFilter.filterFloat(this.acceleration, this.acceleration);
     }
 
     private void onMagneticSensorChanged(float[] magnetic) {
         // Get a local copy of the raw magnetic values from the device sensor.
         System.arraycopy(magnetic, 0, this.magnetic, 0, magnetic.length);
 
-        this.magnetic = meanFilterMagnetic.filterFloat(this.magnetic);
+        magneticFilter.filterFloat(this.magnetic, this.magnetic);
     }
 
     private void onGravitySensorChanged(float[] gravity) {
         // Get a local copy of the raw magnetic values from the device sensor.
         System.arraycopy(gravity, 0, this.gravity, 0, gravity.length);
-        this.gravity = meanFilterGravity.filterFloat(this.gravity);
+        gravityFilter.filterFloat(this.gravity, this.gravity);
         calculateOrientation();
     }
 
@@ -456,12 +551,14 @@ public class LinearAcceleration {
         // don't start until first accelerometer/magnetometer orientation has
         // been acquired
         if (!hasOrientation) {
+            stats.onWithoutOrientation();
             return;
         }
 
         // Initialization of the gyroscope based rotation matrix
         if (!initState) {
-            gyroMatrix = matrixMultiplication(gyroMatrix, rotationMatrix);
+            matrixMultiplication(gyroMatrix, rotationMatrix, productMatrix);
+            System.arraycopy(productMatrix, 0, gyroMatrix, 0, 9);
             initState = true;
         }
 
@@ -485,18 +582,31 @@ public class LinearAcceleration {
         // rotations... Which in this case are the rotation matrix from the
         // fused orientation and the rotation matrix from the current gyroscope
         // outputs.
-        gyroMatrix = matrixMultiplication(gyroMatrix, deltaMatrix);
+        matrixMultiplication(gyroMatrix, deltaMatrix, productMatrix);
+        System.arraycopy(productMatrix, 0, gyroMatrix, 0, 9);
 
         // Get the gyroscope based orientation from the composite rotation
         // matrix. This orientation will be fused via complementary filter with
         // the orientation from the acceleration sensor and magnetic sensor.
-        getOrientation(gyroMatrix, gyroOrientation);
+        getOrientation(gyroMatrix, gyroOrientation, math);
 
         calculateFusedOrientation();
     }
 
     // Calculate the fused orientation.
     private void calculateFusedOrientation() {
+        stats.onFused();
+        fuseOrientation(gyroOrientation, orientation, fusedOrientation);
+
+        // overwrite gyro matrix and orientation with fused orientation  to comensate gyro drift
+        getRotationMatrixFromOrientation(fusedOrientation, gyroMatrix, xM, yM, zM, xyM, math);
+
+        System.arraycopy(fusedOrientation, 0, gyroOrientation, 0, 3);
+        calculateLinearAcceleration();
+    }
+
+    // Complementary filter between the gyro and the accelerometer/magnetometer orientation.
+    static void fuseOrientation(float[] gyroOrientation, float[] orientation, float[] fusedOrientation) {
         float oneMinusCoeff = (1.0f - FILTER_COEFFICIENT);
 
 		/*
@@ -561,15 +671,13 @@ public class LinearAcceleration {
             fusedOrientation[2] = FILTER_COEFFICIENT * gyroOrientation[2]
                     + oneMinusCoeff * orientation[2];
         }
+    }
 
-        // overwrite gyro matrix and orientation with fused orientation  to comensate gyro drift
-        gyroMatrix = getRotationMatrixFromOrientation(fusedOrientation);
-
-        System.arraycopy(fusedOrientation, 0, gyroOrientation, 0, 3);
-        calculateLinearAcceleration();
+    static float[] getOrientation(float[] R, float values[]) {
+        return getOrientation(R, values, FusionMath.EXACT);
     }
 
-    private static float[] getOrientation(float[] R, float values[]) {
+    static float[] getOrientation(float[] R, float values[], FusionMath math) {
         /*
         * 4x4 (length=16) case:
         *     R[ 0]   R[ 1]   R[ 2]   0
@@ -584,13 +692,13 @@ public class LinearAcceleration {
         *
         */
         if (R.length == 9) {
-            values[0] = (float) Math.atan2(R[1], R[4]);
-            values[1] = (float) Math.asin(-R[7]);
-            values[2] = (float) Math.atan2(-R[6], R[8]);
+            values[0] = math.atan2(R[1], R[4]);
+            values[1] = math.asin(-R[7]);
+            values[2] = math.atan2(-R[6], R[8]);
         } else {
-            values[0] = (float) Math.atan2(R[1], R[5]);
-            values[1] = (float) Math.asin(-R[9]);
-            values[2] = (float) Math.atan2(-R[8], R[10]);
+            values[0] = math.atan2(R[1], R[5]);
+            values[1] = math.asin(-R[9]);
+            values[2] = math.atan2(-R[8], R[10]);
         }
         return values;
     }
@@ -620,19 +728,9 @@ public class LinearAcceleration {
         // values[1]: pitch, rotation around the X axis.
         // values[2]: roll, rotation around the Y axis.
 
-        // Find the gravity component of the X-axis = g*-cos(pitch)*sin(roll);
-        components[0] = (float) (Constants.GRAVITY_EARTH
-                * -Math.cos(absoluteFrameOrientation[1]) * Math
-                .sin(absoluteFrameOrientation[2]));
-
-        // Find the gravity component of the Y-axis  g*-sin(pitch);
-        components[1] = (float) (Constants.GRAVITY_EARTH * -Math
-                .sin(absoluteFrameOrientation[1]));
-
-        // Find the gravity component of the Z-axis = g*cos(pitch)*cos(roll);
-        components[2] = (float) (Constants.GRAVITY_EARTH
-                * Math.cos(absoluteFrameOrientation[1]) * Math
-                .cos(absoluteFrameOrientation[2]));
+        // Find the gravity components of the X-axis = g*-cos(pitch)*sin(roll), the Y-axis = g*-sin(pitch) and the
+        // Z-axis = g*cos(pitch)*cos(roll)
+        math.gravity(absoluteFrameOrientation[1], absoluteFrameOrientation[2], components);
 
         // Subtract the gravity component of the signal from the input acceleration signal to get the tilt
         // compensated output.
@@ -640,8 +738,7 @@ public class LinearAcceleration {
         linearAcceleration[1] = (this.acceleration[1] - components[1]);
         linearAcceleration[2] = (this.acceleration[2] - components[2]);
 
-        this.linearAcceleration = meanFilterLinearAcceleration
-                .filterFloat(this.linearAcceleration);
+        linearAccelerationFilter.filterFloat(this.linearAcceleration, this.linearAcceleration);
 
         prepareToExport();
     }
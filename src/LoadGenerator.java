@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams a capture to a SensorServer from many connections at once, as fast as the server takes it, to measure
+ * ingestion on loopback. The capture is encoded once, as text lines or with -b as binary records, and every
+ * connection sends its own view of the same bytes, repeat times over. All TCP connections are driven by one selector
+ * thread; each half-closes once it has sent everything and counts as done when the server, having read it all,
+ * closes its end, so the TCP rate is that of ingestion rather than of filling socket buffers. With -d the samples go
+ * out as datagrams of whole records instead, each connection being a UDP socket of its own. Nothing tells when those
+ * have been read, so the rate printed is only that of sending, and datagrams the server cannot keep up with are lost:
+ * compare with the server's report, or pace them with -r samples per second over all sockets.
+ *
+ * Usage: LoadGenerator [-c connections] [-n repeat] [-b] [-d [-r rate]] [host:]port [capture]
+ *
+ * The capture defaults to log.dat and the host to localhost.
+ */
+public class LoadGenerator {
+    // Keeps a datagram within a typical Ethernet MTU.
+    private static final int DATAGRAM_SIZE = 1400;
+
+    private final InetSocketAddress target;
+    private final int connections;
+    private final int repeat;
+    private final boolean binary;
+    private double rate;
+
+    private final ByteBuffer records;
+    private final long sampleCount;
+
+    public LoadGenerator(InetSocketAddress target, String capture, int connections, int repeat, boolean binary)
+            throws IOException {
+        if (connections < 1 || repeat < 1) {
+            throw new IllegalArgumentException("Connections and repeat must be positive: " + connections + ", "
+                    + repeat);
+        }
+        this.target = target;
+        this.connections = connections;
+        this.repeat = repeat;
+        this.binary = binary;
+
+        ByteBuffer encoded = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        long count = 0;
+        SensorSource source = new Importer().openSource(capture);
+        try {
+            SensorSingleData data = new SensorSingleData();
+            while (source.next(data)) {
+                if (encoded.remaining() < RecordWriter.MAX_RECORD_SIZE) {
+                    ByteBuffer larger = ByteBuffer.allocate(encoded.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+                    encoded.flip();
+                    larger.put(encoded);
+                    encoded = larger;
+                }
+                if (binary) {
+                    BinarySensorLog.writeRecord(encoded, data);
+                } else {
+                    RecordWriter.write(data, encoded);
+                }
+                count++;
+            }
+        } finally {
+            source.close();
+        }
+        encoded.flip();
+        records = encoded.asReadOnlyBuffer();
+        sampleCount = count;
+    }
+
+    // Pace sendUdp to this many samples per second; 0, the default, sends as fast as possible.
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    // Samples sent by each run.
+    public long getSampleCount() {
+        return sampleCount * repeat * connections;
+    }
+
+    /**
+     * Send repeat copies of the capture over every TCP connection and wait for the server to close each of them.
+     *
+     * @return the number of bytes sent
+     */
+    public long sendTcp() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BinarySensorLog.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (binary) {
+            BinarySensorLog.writeHeader(header, BinarySensorLog.UNKNOWN_COUNT);
+        }
+        header.flip();
+
+        Selector selector = Selector.open();
+        ByteBuffer discard = ByteBuffer.allocate(4096);
+        long bytes = 0;
+        try {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                Stream stream = new Stream(header.duplicate(), records.duplicate(), repeat);
+                if (channel.connect(target)) {
+                    channel.register(selector, SelectionKey.OP_WRITE, stream);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, stream);
+                }
+            }
+            int open = connections;
+            while (open > 0) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    Stream stream = (Stream) key.attachment();
+                    if (key.isConnectable()) {
+                        channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    } else if (key.isWritable()) {
+                        bytes += stream.write(channel);
+                        if (stream.isDone()) {
+                            channel.shutdownOutput();
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } else if (key.isReadable()) {
+                        discard.clear();
+                        if (channel.read(discard) < 0) {
+                            key.cancel();
+                            channel.close();
+                            open--;
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Send repeat copies of the capture from every UDP socket, packing whole records into each datagram.
+     *
+     * @return the number of bytes sent
+     */
+    public long sendUdp() throws IOException {
+        List<ByteBuffer> packets = packDatagrams();
+        int[] samples = new int[packets.size()];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = samplesIn(packets.get(i));
+        }
+        List<DatagramChannel> channels = new ArrayList<DatagramChannel>();
+        long bytes = 0;
+        long sent = 0;
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < connections; i++) {
+                DatagramChannel channel = DatagramChannel.open();
+                channel.connect(target);
+                channels.add(channel);
+            }
+            for (int r = 0; r < repeat; r++) {
+                for (int p = 0; p < samples.length; p++) {
+                    for (DatagramChannel channel : channels) {
+                        bytes += channel.write(packets.get(p).duplicate());
+                        sent += samples[p];
+                        if (rate > 0) {
+                            long wait = start + (long) (sent * 1e9 / rate) - System.nanoTime();
+                            if (wait > 0) {
+                                LockSupport.parkNanos(wait);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (DatagramChannel channel : channels) {
+                channel.close();
+            }
+        }
+        return bytes;
+    }
+
+    private List<ByteBuffer> packDatagrams() {
+        List<ByteBuffer> packets = new ArrayList<ByteBuffer>();
+        ByteBuffer all = records.duplicate();
+        int prefix = binary ? 4 : 0;
+        while (all.hasRemaining()) {
+            int start = all.position();
+            int end = start;
+            if (binary) {
+                int fit = (DATAGRAM_SIZE - prefix) / BinarySensorLog.RECORD_SIZE * BinarySensorLog.RECORD_SIZE;
+                end = Math.min(all.limit(), start + fit);
+            } else {
+                // Whole lines, at least one.
+                for (int i = start; i < all.limit() && (i - start < DATAGRAM_SIZE || end == start); i++) {
+                    if (all.get(i) == '\n') {
+                        end = i + 1;
+                    }
+                }
+                if (end == start) {
+                    end = all.limit();
+                }
+            }
+            ByteBuffer packet = ByteBuffer.allocate(prefix + end - start).order(ByteOrder.LITTLE_ENDIAN);
+            if (binary) {
+                packet.putInt(BinarySensorLog.MAGIC);
+            }
+            all.limit(end);
+            packet.put(all);
+            all.limit(records.limit());
+            packet.flip();
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    private int samplesIn(ByteBuffer packet) {
+        if (binary) {
+            return (packet.remaining() - 4) / BinarySensorLog.RECORD_SIZE;
+        }
+        int lines = packet.get(packet.limit() - 1) == '\n' ? 0 : 1;
+        for (int i = packet.position(); i < packet.limit(); i++) {
+            if (packet.get(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    // One connection's progress through header, then repeat copies of the records.
+    private static final class Stream {
+        private final ByteBuffer header;
+        private final ByteBuffer records;
+        private int left;
+
+        Stream(ByteBuffer header, ByteBuffer records, int repeat) {
+            this.header = header;
+            this.records = records;
+            this.left = repeat;
+        }
+
+        long write(SocketChannel channel) throws IOException {
+            long written = 0;
+            if (header.hasRemaining()) {
+                written += channel.write(header);
+                if (header.hasRemaining()) {
+                    return written;
+                }
+            }
+            while (left > 0) {
+                int n = channel.write(records);
+                written += n;
+                if (records.hasRemaining()) {
+                    return written;
+                }
+                records.rewind();
+                left--;
+            }
+            return written;
+        }
+
+        boolean isDone() {
+            return left == 0 && !header.hasRemaining();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int connections = 1;
+        int repeat = 1;
+        boolean binary = false;
+        boolean udp = false;
+        double rate = 0;
+        String address = null;
+        String capture = Constants.SENSOR_FILE_IMPORT;
+        for (int i = 0; i < args.length; i++) {
+            if ("-c".equals(args[i]) && i + 1 < args.length) {
+                connections = Integer.parseInt(args[++i]);
+            } else if ("-n".equals(args[i]) && i + 1 < args.length) {
+                repeat = Integer.parseInt(args[++i]);
+            } else if ("-b".equals(args[i])) {
+                binary = true;
+            } else if ("-d".equals(args[i])) {
+                udp = true;
+            } else if ("-r".equals(args[i]) && i + 1 < args.length) {
+                rate = Double.parseDouble(args[++i]);
+            } else if (address == null) {
+                address = args[i];
+            } else {
+                capture = args[i];
+            }
+        }
+        if (address == null) {
+            System.err.println("Usage: LoadGenerator [-c connections] [-n repeat] [-b] [-d [-r rate]] [host:]port"
+                    + " [capture]");
+            System.exit(1);
+        }
+        int colon = address.lastIndexOf(':');
+        InetSocketAddress target = new InetSocketAddress(colon < 0 ? "localhost" : address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1)));
+
+        LoadGenerator generator = new LoadGenerator(target, capture, connections, repeat, binary);
+        generator.setRate(rate);
+        long start = System.nanoTime();
+        long bytes = udp ? generator.sendUdp() : generator.sendTcp();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (udp) {
+            System.out.println(String.format("Sent %d samples (%d bytes) over %d UDP sockets in %.3f s, %.0f samples/s"
+                    + " sent; see the server's report for how many arrived", generator.getSampleCount(), bytes,
+                    connections, seconds, generator.getSampleCount() / seconds));
+        } else {
+            System.out.println(String.format("Sent %d samples (%d bytes) over %d TCP connections, read by the server"
+                    + " in %.3f s, %.0f samples/s", generator.getSampleCount(), bytes, connections, seconds,
+                    generator.getSampleCount() / seconds));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * First-order IIR low-pass, i.e. an exponential moving average: out += alpha * (in - out) per axis. It needs one
+ * float of state per axis and two flops, whatever the amount of smoothing. The first sample initialises the state, so
+ * the output does not ramp up from zero.
+ *
+ * alpha = 2 / (N + 1) delays a signal by the same (N - 1) / 2 samples on average as a MeanFilter of window N.
+ */
+public class LowPassFilter implements SensorFilter {
+    private final float alpha;
+    private float[] state;
+    private boolean primed;
+
+    /**
+     * @param alpha smoothing factor in (0, 1]; smaller is smoother, 1 passes the input through
+     */
+    public LowPassFilter(float alpha) {
+        if (!(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        }
+        this.alpha = alpha;
+    }
+
+    // The filter with the same average delay as a mean filter of the given window.
+    public static LowPassFilter forWindow(int windowSize) {
+        return new LowPassFilter(2.0f / (windowSize + 1));
+    }
+
+    @Override
+    public float[] filterFloat(float[] data, float[] out) {
+        if (state == null) {
+            state = new float[data.length];
+        }
+        if (!primed) {
+            System.arraycopy(data, 0, state, 0, data.length);
+            primed = true;
+        } else {
+            for (int i = 0; i < data.length; i++) {
+                state[i] += alpha * (data[i] - state[i]);
+            }
+        }
+        System.arraycopy(state, 0, out, 0, data.length);
+        return out;
+    }
+
+    public float getAlpha() {
+        return alpha;
+    }
+
+    @Override
+    public void reset() {
+        primed = false;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(primed);
+        if (primed) {
+            out.writeInt(state.length);
+            Checkpoint.writeFloats(out, state);
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        primed = in.readBoolean();
+        if (primed) {
+            int axes = in.readInt();
+            if (axes < 0) {
+                throw new IOException("Negative axis count: " + axes);
+            }
+            state = new float[axes];
+            Checkpoint.readFloats(in, state);
+        }
+    }
+}
@@ -1,8 +1,61 @@
 import java.io.IOException;
 
+/**
+ * Usage: Main [-q | -k] [-f] [-r speed | -t] [-F filters] [-O format]
+ *
+ * -q fuses with QuaternionFusion instead of the Euler angle complementary filter of LinearAcceleration.
+ * -k fuses with the KalmanFusion extended Kalman filter instead.
+ * -f uses the FusionMath.FAST approximations instead of java.lang.Math.
+ * -r replays log.dat at its recorded rate times speed ("1", "10x", "max") and reports how late samples were.
+ * -t follows log.dat as it grows, like tail -F, until the process is stopped.
+ * -F chooses the filter of each channel, e.g. "gravity=lowpass~10,linear_acceleration=none" (see SensorFilters).
+ * -O writes new_log.dat in another export format, e.g. "binary+delta+deflate" (see FusedLogFormat.parse).
+ */
 public class Main {
-    public static void main(String[] args) throws IOException {
-        new LinearAcceleration();
-        new SensorDataFactory();
+    private static final int RING_CAPACITY = 1024;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean quaternion = false;
+        boolean kalman = false;
+        FusionMath math = FusionMath.EXACT;
+        double speed = 0;
+        boolean follow = false;
+        SensorFilters filters = new SensorFilters();
+        ExportFormat format = ExportFormat.TEXT;
+        for (int i = 0; i < args.length; i++) {
+            if ("-q".equals(args[i])) {
+                quaternion = true;
+            } else if ("-k".equals(args[i])) {
+                kalman = true;
+            } else if ("-f".equals(args[i])) {
+                math = FusionMath.FAST;
+            } else if ("-r".equals(args[i]) && i + 1 < args.length) {
+                speed = RealTimeSensorSource.parseSpeed(args[++i]);
+            } else if ("-t".equals(args[i])) {
+                follow = true;
+            } else if ("-F".equals(args[i]) && i + 1 < args.length) {
+                filters = SensorFilters.parse(args[++i]);
+            } else if ("-O".equals(args[i]) && i + 1 < args.length) {
+                format = FusedLogFormat.parse(args[++i]);
+            }
+        }
+        Exporter exporter = new Exporter(Constants.SENSOR_FILE_EXPORT, format);
+        SensorListener listener = kalman ? new KalmanFusion(exporter, math, filters)
+                : quaternion ? new QuaternionFusion(exporter, math, filters)
+                : new LinearAcceleration(exporter, math, filters);
+        // Following waits on the file for as long as it runs, so its consumer parks instead of spinning when idle.
+        RingBufferTransport transport = new RingBufferTransport(RING_CAPACITY,
+                follow ? WaitStrategy.PARK : WaitStrategy.YIELD);
+        transport.start(listener);
+        if (follow) {
+            new SensorDataFactory(new FollowingSensorSource(Constants.SENSOR_FILE_IMPORT), transport);
+        } else if (speed > 0) {
+            RealTimeSensorSource replay = new RealTimeSensorSource(new Importer().openSource(), speed);
+            new SensorDataFactory(replay, transport);
+            transport.awaitTermination();
+            System.out.println(replay.report());
+        } else {
+            new SensorDataFactory(new Importer().openSource(), transport);
+        }
     }
 }
\ No newline at end of file
@@ -1,62 +1,188 @@
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
-public class MeanFilter {
+public class MeanFilter implements SensorFilter {
     // The size of the mean filters rolling window.
     private int filterWindow = 30;
 
     private boolean dataInit;
 
-    private ArrayList<LinkedList<Number>> dataLists;
+    // One preallocated ring per axis, all axes share the same head and count.
+    private float[][] rings;
+    // Running sums in double keep the drift from adding and removing float samples small; resync, once per lap of
+    // the ring, recomputes them from the ring and so removes it.
+    private double[] sums;
+    private int capacity;
+    private int head;
+    private int count;
 
     public MeanFilter() {
-        dataLists = new ArrayList<LinkedList<Number>>();
         dataInit = false;
     }
 
     public float[] filterFloat(float[] data) {
-        for (int i = 0; i < data.length; i++) {
-            // Initialize the data structures for the data set.
-            if (!dataInit) {
-                dataLists.add(new LinkedList<Number>());
-            }
+        return filterFloat(data, new float[data.length]);
+    }
 
-            dataLists.get(i).addLast(data[i]);
+    /**
+     * Push one sample per axis and write the current window means into out. Runs in O(1) per axis and does not
+     * allocate once the rings have been created on the first call.
+     */
+    @Override
+    public float[] filterFloat(float[] data, float[] out) {
+        // Initialize the data structures for the data set.
+        if (!dataInit) {
+            init(data.length);
+        }
 
-            if (dataLists.get(i).size() > filterWindow) {
-                dataLists.get(i).removeFirst();
+        float[][] rings = this.rings;
+        double[] sums = this.sums;
+        int evict = -1;
+        if (count == filterWindow) {
+            evict = head - count;
+            if (evict < 0) {
+                evict += capacity;
             }
+        } else {
+            count++;
         }
 
-        dataInit = true;
+        for (int i = 0; i < rings.length; i++) {
+            float[] ring = rings[i];
+            if (evict >= 0) {
+                sums[i] -= ring[evict];
+            }
+            ring[head] = data[i];
+            sums[i] += data[i];
+        }
 
-        float[] means = new float[dataLists.size()];
+        if (++head == capacity) {
+            head = 0;
+            resync();
+        }
 
-        for (int i = 0; i < dataLists.size(); i++) {
-            means[i] = getMean(dataLists.get(i));
+        for (int i = 0; i < rings.length; i++) {
+            out[i] = (float) (sums[i] / count);
         }
 
-        return means;
+        return out;
     }
 
-    private float getMean(List<Number> data) {
-        float m = 0;
-        float count = 0;
+    public void setWindowSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + size);
+        }
+        this.filterWindow = size;
+        if (!dataInit) {
+            return;
+        }
+        if (size > capacity) {
+            grow(size);
+        }
+        // Drop the oldest samples that no longer fit in the smaller window.
+        while (count > size) {
+            int oldest = head - count;
+            if (oldest < 0) {
+                oldest += capacity;
+            }
+            for (int i = 0; i < rings.length; i++) {
+                sums[i] -= rings[i][oldest];
+            }
+            count--;
+        }
+    }
 
-        for (Number aData : data) {
-            m += aData.floatValue();
-            count++;
+    public int getWindowSize() {
+        return filterWindow;
+    }
+
+    @Override
+    public void reset() {
+        head = 0;
+        count = 0;
+        if (dataInit) {
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] = 0;
+            }
         }
+    }
 
-        if (count != 0) {
-            m = m / count;
+    // The rings are saved whole, with the running sums, so a restored filter rounds exactly like the original.
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(filterWindow);
+        out.writeBoolean(dataInit);
+        if (!dataInit) {
+            return;
         }
+        out.writeInt(rings.length);
+        out.writeInt(capacity);
+        out.writeInt(head);
+        out.writeInt(count);
+        for (float[] ring : rings) {
+            Checkpoint.writeFloats(out, ring);
+        }
+        Checkpoint.writeDoubles(out, sums);
+    }
 
-        return m;
+    @Override
+    public void readState(DataInput in) throws IOException {
+        filterWindow = in.readInt();
+        dataInit = in.readBoolean();
+        if (!dataInit) {
+            return;
+        }
+        int axes = in.readInt();
+        capacity = in.readInt();
+        head = in.readInt();
+        count = in.readInt();
+        rings = new float[axes][capacity];
+        for (float[] ring : rings) {
+            Checkpoint.readFloats(in, ring);
+        }
+        sums = new double[axes];
+        Checkpoint.readDoubles(in, sums);
     }
 
-    public void setWindowSize(int size) {
-        this.filterWindow = size;
+    private void init(int axes) {
+        capacity = filterWindow;
+        rings = new float[axes][capacity];
+        sums = new double[axes];
+        head = 0;
+        count = 0;
+        dataInit = true;
+    }
+
+    // Only called from setWindowSize, so the filter path itself never reallocates.
+    private void grow(int newCapacity) {
+        for (int i = 0; i < rings.length; i++) {
+            float[] ring = new float[newCapacity];
+            for (int j = 0; j < count; j++) {
+                int index = head - count + j;
+                if (index < 0) {
+                    index += capacity;
+                }
+                ring[j] = rings[i][index];
+            }
+            rings[i] = ring;
+        }
+        capacity = newCapacity;
+        head = count;
+    }
+
+    // Recompute the sums from the window once per lap of the ring to cancel any accumulated rounding error.
+    private void resync() {
+        for (int i = 0; i < rings.length; i++) {
+            double sum = 0;
+            for (int j = 0; j < count; j++) {
+                int index = head - count + j;
+                if (index < 0) {
+                    index += capacity;
+                }
+                sum += rings[i][index];
+            }
+            sums[i] = sum;
+        }
     }
 }
@@ -0,0 +1,267 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Sliding window median, which rejects isolated spikes instead of smearing them over the window like MeanFilter.
+ *
+ * Each axis keeps its window in a ring and an index heap over the ring slots, laid out around the median: positions
+ * 1, 2, ... form a min-heap of the values above it and -1, -2, ... a max-heap of the values below it. A new sample
+ * overwrites the oldest slot and is sifted from that slot's heap position, so an update costs O(log w) and never
+ * allocates. With an even number of samples the two middle values are averaged.
+ */
+public class MedianFilter implements SensorFilter {
+    private int filterWindow;
+
+    private boolean dataInit;
+
+    // Per axis: ring of samples, heap position of every ring slot, ring slot at every heap position.
+    private float[][] values;
+    private int[][] positions;
+    private int[][] heaps;
+    private int offset; // array index of heap position 0
+    private int next; // ring slot the next sample overwrites
+    private int count;
+
+    // The axis being updated.
+    private float[] value;
+    private int[] position;
+    private int[] heap;
+
+    public MedianFilter() {
+        this(10);
+    }
+
+    public MedianFilter(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.filterWindow = windowSize;
+    }
+
+    @Override
+    public float[] filterFloat(float[] data, float[] out) {
+        if (!dataInit) {
+            init(data.length);
+        }
+        boolean filling = count < filterWindow;
+        if (filling) {
+            count++;
+        }
+        int slot = next;
+        if (++next == filterWindow) {
+            next = 0;
+        }
+        for (int axis = 0; axis < values.length; axis++) {
+            select(axis);
+            insert(slot, data[axis], filling);
+            out[axis] = median();
+        }
+        return out;
+    }
+
+    /**
+     * Change the window, keeping the most recent samples that fit. Unlike filtering this rebuilds the heaps.
+     */
+    public void setWindowSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Window size must be positive: " + size);
+        }
+        if (!dataInit) {
+            filterWindow = size;
+            return;
+        }
+        int keep = Math.min(count, size);
+        float[][] recent = new float[values.length][keep];
+        for (int axis = 0; axis < values.length; axis++) {
+            for (int j = 0; j < keep; j++) {
+                int index = next - keep + j;
+                if (index < 0) {
+                    index += filterWindow;
+                }
+                recent[axis][j] = values[axis][index];
+            }
+        }
+        filterWindow = size;
+        init(values.length);
+        float[] sample = new float[values.length];
+        for (int j = 0; j < keep; j++) {
+            for (int axis = 0; axis < values.length; axis++) {
+                sample[axis] = recent[axis][j];
+            }
+            filterFloat(sample, sample);
+        }
+    }
+
+    public int getWindowSize() {
+        return filterWindow;
+    }
+
+    @Override
+    public void reset() {
+        if (dataInit) {
+            init(values.length);
+        }
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(filterWindow);
+        out.writeBoolean(dataInit);
+        if (!dataInit) {
+            return;
+        }
+        out.writeInt(values.length);
+        out.writeInt(next);
+        out.writeInt(count);
+        for (int axis = 0; axis < values.length; axis++) {
+            Checkpoint.writeFloats(out, values[axis]);
+            Checkpoint.writeInts(out, positions[axis]);
+            Checkpoint.writeInts(out, heaps[axis]);
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        filterWindow = in.readInt();
+        dataInit = false;
+        if (!in.readBoolean()) {
+            return;
+        }
+        init(in.readInt());
+        next = in.readInt();
+        count = in.readInt();
+        for (int axis = 0; axis < values.length; axis++) {
+            Checkpoint.readFloats(in, values[axis]);
+            Checkpoint.readInts(in, positions[axis]);
+            Checkpoint.readInts(in, heaps[axis]);
+        }
+    }
+
+    private void init(int axes) {
+        values = new float[axes][filterWindow];
+        positions = new int[axes][filterWindow];
+        heaps = new int[axes][filterWindow];
+        offset = filterWindow / 2;
+        // Slots start out alternating around the median: 0, -1, 1, -2, 2, ...
+        for (int axis = 0; axis < axes; axis++) {
+            for (int slot = 0; slot < filterWindow; slot++) {
+                int p = ((slot + 1) / 2) * ((slot & 1) != 0 ? -1 : 1);
+                positions[axis][slot] = p;
+                heaps[axis][offset + p] = slot;
+            }
+        }
+        next = 0;
+        count = 0;
+        dataInit = true;
+    }
+
+    private void select(int axis) {
+        value = values[axis];
+        position = positions[axis];
+        heap = heaps[axis];
+    }
+
+    private void insert(int slot, float v, boolean filling) {
+        float old = value[slot];
+        value[slot] = v;
+        int p = position[slot];
+        if (p > 0) {
+            // in the min-heap above the median
+            if (!filling && old < v) {
+                minSortDown(p * 2);
+            } else if (minSortUp(p)) {
+                maxSortDown(-1);
+            }
+        } else if (p < 0) {
+            // in the max-heap below the median
+            if (!filling && v < old) {
+                maxSortDown(p * 2);
+            } else if (maxSortUp(p)) {
+                minSortDown(1);
+            }
+        } else {
+            // at the median itself
+            if (maxCount() > 0) {
+                maxSortDown(-1);
+            }
+            if (minCount() > 0) {
+                minSortDown(1);
+            }
+        }
+    }
+
+    private float median() {
+        float v = value[heap[offset]];
+        if ((count & 1) == 0) {
+            v = (v + value[heap[offset - 1]]) / 2;
+        }
+        return v;
+    }
+
+    private int minCount() {
+        return (count - 1) / 2;
+    }
+
+    private int maxCount() {
+        return count / 2;
+    }
+
+    private boolean less(int i, int j) {
+        return value[heap[offset + i]] < value[heap[offset + j]];
+    }
+
+    // Swap heap positions i and j if the value at i is less than the one at j.
+    private boolean exchangeIfLess(int i, int j) {
+        if (!less(i, j)) {
+            return false;
+        }
+        int a = heap[offset + i];
+        int b = heap[offset + j];
+        heap[offset + i] = b;
+        heap[offset + j] = a;
+        position[b] = i;
+        position[a] = j;
+        return true;
+    }
+
+    // Restore the min-heap below position i / 2, starting with its child i.
+    private void minSortDown(int i) {
+        int size = minCount();
+        for (; i <= size; i *= 2) {
+            if (i > 1 && i < size && less(i + 1, i)) {
+                i++;
+            }
+            if (!exchangeIfLess(i, i / 2)) {
+                break;
+            }
+        }
+    }
+
+    private void maxSortDown(int i) {
+        int size = maxCount();
+        for (; i >= -size; i *= 2) {
+            if (i < -1 && i > -size && less(i, i - 1)) {
+                i--;
+            }
+            if (!exchangeIfLess(i / 2, i)) {
+                break;
+            }
+        }
+    }
+
+    // Sift up; true if the value reached the median position.
+    private boolean minSortUp(int i) {
+        while (i > 0 && exchangeIfLess(i, i / 2)) {
+            i /= 2;
+        }
+        return i == 0;
+    }
+
+    private boolean maxSortUp(int i) {
+        while (i < 0 && exchangeIfLess(i / 2, i)) {
+            i /= 2;
+        }
+        return i == 0;
+    }
+}
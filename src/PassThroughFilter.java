@@ -0,0 +1,27 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+
+/**
+ * A SensorFilter that does not filter, for channels whose input is clean enough already.
+ */
+public class PassThroughFilter implements SensorFilter {
+    @Override
+    public float[] filterFloat(float[] data, float[] out) {
+        if (out != data) {
+            System.arraycopy(data, 0, out, 0, data.length);
+        }
+        return out;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public void writeState(DataOutput out) {
+    }
+
+    @Override
+    public void readState(DataInput in) {
+    }
+}
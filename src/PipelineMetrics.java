@@ -0,0 +1,155 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Per-stage latency histograms for the sample pipeline, switched on with -Dsensorfusion.metrics=true. ENABLED is a
+ * constant, so when it is false the JIT removes every instrumentation point along with its System.nanoTime calls.
+ * When enabled, the histograms are printed to stderr at shutdown and can be dumped at any time with print().
+ *
+ * Every thread records into histograms of its own, so the BatchRunner workers and the transport threads never write
+ * to a shared cache line; histogram() and print() merge them. The histograms of threads that have ended are folded
+ * into one set when the next thread starts recording, so short-lived threads such as exporter writers do not pile up.
+ *
+ * Stages, in pipeline order:
+ * <pre>
+ * SOURCE      reading and parsing one sample (SensorSource.next)
+ * TRANSPORT   from publish to the start of onSensorUpdate: ring hand-off or EventBus dispatch
+ * FILTER      filters on the accelerometer and magnetometer input
+ * FUSION      orientation, gyro integration, fusion and linear acceleration, with their filters
+ * EXPORT      formatting the result into the Exporter buffer
+ * WRITE       the exporter thread writing one buffer to the file
+ * END_TO_END  from publish to the end of the export, per sample
+ * </pre>
+ */
+public final class PipelineMetrics {
+    public static final boolean ENABLED = Boolean.getBoolean("sensorfusion.metrics");
+
+    public enum Stage {
+        SOURCE, TRANSPORT, FILTER, FUSION, EXPORT, WRITE, END_TO_END
+    }
+
+    private static final int STAGES = Stage.values().length;
+
+    // Guarded by RECORDERS.
+    private static final List<Recorder> RECORDERS = new ArrayList<Recorder>();
+    private static final LatencyHistogram[] ENDED = newHistograms();
+
+    private static final ThreadLocal<LatencyHistogram[]> LOCAL = new ThreadLocal<LatencyHistogram[]>() {
+        @Override
+        protected LatencyHistogram[] initialValue() {
+            Recorder recorder = new Recorder(Thread.currentThread(), newHistograms());
+            synchronized (RECORDERS) {
+                foldEndedThreads();
+                RECORDERS.add(recorder);
+            }
+            return recorder.histograms;
+        }
+    };
+
+    static {
+        if (ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread("metrics-dump") {
+                public void run() {
+                    print(System.err);
+                }
+            });
+        }
+    }
+
+    private PipelineMetrics() {
+    }
+
+    // Start of a measured interval; 0 when disabled.
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time since startNanos (from start()) under stage. A zero startNanos, e.g. a sample that was never
+     * published, is not recorded.
+     *
+     * @return the current time, to be used as the start of the next stage
+     */
+    public static long record(Stage stage, long startNanos) {
+        if (!ENABLED) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        if (startNanos != 0) {
+            LOCAL.get()[stage.ordinal()].record(now - startNanos);
+        }
+        return now;
+    }
+
+    // A snapshot of stage over all threads.
+    public static LatencyHistogram histogram(Stage stage) {
+        LatencyHistogram merged = new LatencyHistogram();
+        synchronized (RECORDERS) {
+            merged.add(ENDED[stage.ordinal()]);
+            for (Recorder recorder : RECORDERS) {
+                merged.add(recorder.histograms[stage.ordinal()]);
+            }
+        }
+        return merged;
+    }
+
+    // Samples recorded meanwhile may be partly kept.
+    public static void reset() {
+        synchronized (RECORDERS) {
+            for (LatencyHistogram histogram : ENDED) {
+                histogram.reset();
+            }
+            for (Recorder recorder : RECORDERS) {
+                for (LatencyHistogram histogram : recorder.histograms) {
+                    histogram.reset();
+                }
+            }
+        }
+    }
+
+    // Caller holds RECORDERS. A thread that has ended records nothing more, so its histograms can be added up.
+    private static void foldEndedThreads() {
+        Iterator<Recorder> recorders = RECORDERS.iterator();
+        while (recorders.hasNext()) {
+            Recorder recorder = recorders.next();
+            if (!recorder.thread.isAlive()) {
+                for (int i = 0; i < STAGES; i++) {
+                    ENDED[i].add(recorder.histograms[i]);
+                }
+                recorders.remove();
+            }
+        }
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[STAGES];
+        for (int i = 0; i < STAGES; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    public static void print(PrintStream out) {
+        out.println(String.format("%-11s %10s %10s %10s %10s %10s %10s", "stage (us)", "count", "mean", "p50", "p99",
+                "p99.9", "max"));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histogram(stage);
+            out.println(String.format("%-11s %10d %10.2f %10.2f %10.2f %10.2f %10.2f", stage, histogram.getCount(),
+                    histogram.getMean() / 1e3, histogram.getPercentile(50) / 1e3,
+                    histogram.getPercentile(99) / 1e3, histogram.getPercentile(99.9) / 1e3,
+                    histogram.getMax() / 1e3));
+        }
+    }
+
+    private static final class Recorder {
+        final Thread thread;
+        final LatencyHistogram[] histograms;
+
+        Recorder(Thread thread, LatencyHistogram[] histograms) {
+            this.thread = thread;
+            this.histograms = histograms;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide pipeline counters. They are LongAdders, which stripe their count over cells when threads collide, so
+ * the BatchRunner workers and the transport threads can all count without contending on one cache line.
+ */
+public final class PipelineStats implements PipelineStatsMBean {
+    public static final String OBJECT_NAME = "sensorfusion:type=PipelineStats";
+
+    private static final PipelineStats INSTANCE = new PipelineStats();
+
+    private final LongAdder ingested = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder withoutOrientation = new LongAdder();
+    private final LongAdder rotationRejected = new LongAdder();
+    private final LongAdder fused = new LongAdder();
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder exportedBytes = new LongAdder();
+    private final LongAdder exportFlushes = new LongAdder();
+
+    public static PipelineStats getInstance() {
+        return INSTANCE;
+    }
+
+    private PipelineStats() {
+    }
+
+    // Publish the counters on the platform MBean server; later calls do nothing.
+    public static synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void onIngested() {
+        ingested.increment();
+    }
+
+    void onReceived() {
+        received.increment();
+    }
+
+    void onMalformed() {
+        malformed.increment();
+    }
+
+    void onWithoutOrientation() {
+        withoutOrientation.increment();
+    }
+
+    void onRotationRejected() {
+        rotationRejected.increment();
+    }
+
+    void onFused() {
+        fused.increment();
+    }
+
+    void onExported() {
+        exported.increment();
+    }
+
+    void onExportWrite(long bytes) {
+        exportedBytes.add(bytes);
+        exportFlushes.increment();
+    }
+
+    @Override
+    public long getSamplesIngested() {
+        return ingested.sum();
+    }
+
+    @Override
+    public long getSamplesReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        // Read received first so a concurrent hand-off cannot make the difference negative.
+        long receivedNow = received.sum();
+        return Math.max(ingested.sum() - receivedNow, 0);
+    }
+
+    @Override
+    public long getSamplesMalformed() {
+        return malformed.sum();
+    }
+
+    @Override
+    public long getSamplesWithoutOrientation() {
+        return withoutOrientation.sum();
+    }
+
+    @Override
+    public long getRotationMatrixRejected() {
+        return rotationRejected.sum();
+    }
+
+    @Override
+    public long getSamplesFused() {
+        return fused.sum();
+    }
+
+    @Override
+    public long getSamplesExported() {
+        return exported.sum();
+    }
+
+    @Override
+    public long getExportedBytes() {
+        return exportedBytes.sum();
+    }
+
+    @Override
+    public long getExportFlushes() {
+        return exportFlushes.sum();
+    }
+
+    @Override
+    public void reset() {
+        ingested.reset();
+        received.reset();
+        malformed.reset();
+        withoutOrientation.reset();
+        rotationRejected.reset();
+        fused.reset();
+        exported.reset();
+        exportedBytes.reset();
+        exportFlushes.reset();
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Live counters of the sample pipeline, published over JMX as sensorfusion:type=PipelineStats.
+ */
+public interface PipelineStatsMBean {
+    // Samples read from a source and published to a transport.
+    long getSamplesIngested();
+
+    // Samples that reached a fusion listener.
+    long getSamplesReceived();
+
+    // Ingested samples the listeners have not received yet.
+    long getQueueDepth();
+
+    // Lines that could not be parsed and were skipped.
+    long getSamplesMalformed();
+
+    // Samples dropped because no accelerometer/magnetometer orientation has been acquired yet.
+    long getSamplesWithoutOrientation();
+
+    // Times getRotationMatrix refused a sample (free fall or close to the magnetic pole).
+    long getRotationMatrixRejected();
+
+    long getSamplesFused();
+
+    long getSamplesExported();
+
+    // Bytes the exporters wrote to their files.
+    long getExportedBytes();
+
+    // Buffers the exporters wrote to their files.
+    long getExportFlushes();
+
+    void reset();
+}
@@ -0,0 +1,229 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Alternative to LinearAcceleration that keeps the orientation as a unit quaternion [x, y, z, w] instead of Euler
+ * angles and rotation matrices. It consumes the same samples and exports the same lines, so the two engines can be
+ * compared on the same capture.
+ *
+ * Per sample the gyro delta rotation is applied by one quaternion product, the accelerometer/magnetometer rotation
+ * matrix is turned into a quaternion with a square root, the two are fused with nlerp and the gravity components are
+ * read straight off the fused quaternion. The only transcendental calls left are the sine and cosine of the gyro
+ * delta; LinearAcceleration spends about twenty per sample on the angle/matrix round trips.
+ *
+ * The gyro rotation is integrated over the dT column of each sample, the nanoseconds since the previous one, like
+ * KalmanFusion does. LinearAcceleration instead takes the difference of consecutive dT values, as it always has.
+ */
+public class QuaternionFusion implements SensorListener, Checkpointable {
+    private final SensorFilter gravityFilter;
+    private final SensorFilter magneticFilter;
+    private final SensorFilter accelerationFilter;
+    private final SensorFilter linearAccelerationFilter;
+
+    private final Exporter exporter;
+    private final FusionMath math;
+    private final PipelineStats stats = PipelineStats.getInstance();
+
+    private boolean hasOrientation = false;
+    private boolean initState = false;
+
+    private final float[] attitude = new float[4]; // fused orientation
+    private final float[] measured = new float[4]; // orientation from accelerometer and magnetometer
+
+    // Scratch state reused on every sample.
+    private final float[] acceleration = new float[3];
+    private final float[] magnetic = new float[3];
+    private final float[] gyroscope = new float[3];
+    private final float[] gravity = new float[3];
+    private final float[] deltaRotation = new float[4];
+    private final float[] rotationMatrix = new float[9];
+    private final float[] product = new float[4];
+    private final float[] components = new float[3]; // gravity removed from the acceleration
+    private final float[] linearAcceleration = new float[3];
+
+    public QuaternionFusion(Exporter exporter) {
+        this(exporter, FusionMath.EXACT);
+    }
+
+    public QuaternionFusion(Exporter exporter, FusionMath math) {
+        this(exporter, math, new SensorFilters());
+    }
+
+    public QuaternionFusion(Exporter exporter, FusionMath math, SensorFilters filters) {
+        gravityFilter = filters.create(SensorFilters.Channel.GRAVITY);
+        magneticFilter = filters.create(SensorFilters.Channel.MAGNETIC);
+        accelerationFilter = filters.create(SensorFilters.Channel.ACCELERATION);
+        linearAccelerationFilter = filters.create(SensorFilters.Channel.LINEAR_ACCELERATION);
+
+        attitude[3] = 1.0f;
+
+        this.exporter = exporter;
+        this.math = math;
+    }
+
+    @Override
+    public void onSensorUpdate(SensorSingleData singleData) {
+        long start = PipelineMetrics.record(PipelineMetrics.Stage.TRANSPORT, singleData.getPublishNanos());
+        stats.onReceived();
+        acceleration[0] = singleData.getAccX();
+        acceleration[1] = singleData.getAccY();
+        acceleration[2] = singleData.getAccZ();
+        magnetic[0] = singleData.getMagnX();
+        magnetic[1] = singleData.getMagnY();
+        magnetic[2] = singleData.getMagnZ();
+        gyroscope[0] = singleData.getGyroX();
+        gyroscope[1] = singleData.getGyroY();
+        gyroscope[2] = singleData.getGyroZ();
+
+        accelerationFilter.filterFloat(acceleration, acceleration);
+        magneticFilter.filterFloat(magnetic, magnetic);
+        start = PipelineMetrics.record(PipelineMetrics.Stage.FILTER, start);
+
+        float dT = Math.max(singleData.getTimestamp(), 0) * LinearAcceleration.NS2S;
+        LinearAcceleration.getRotationVectorFromGyro(gyroscope, dT / 2.0f, deltaRotation, math);
+
+        LinearAcceleration.getGravityVector(deltaRotation, gravity);
+        gravityFilter.filterFloat(gravity, gravity);
+        if (LinearAcceleration.getRotationMatrix(rotationMatrix, null, gravity, magnetic)) {
+            fromRotationMatrix(rotationMatrix, measured);
+            hasOrientation = true;
+        } else {
+            stats.onRotationRejected();
+        }
+
+        // don't start until first accelerometer/magnetometer orientation has been acquired
+        if (!hasOrientation) {
+            stats.onWithoutOrientation();
+            return;
+        }
+        if (!initState) {
+            System.arraycopy(measured, 0, attitude, 0, 4);
+            initState = true;
+        }
+
+        stats.onFused();
+        multiply(attitude, deltaRotation, product);
+        nlerp(product, measured, 1.0f - LinearAcceleration.FILTER_COEFFICIENT, attitude);
+
+        subtractGravity(acceleration, attitude, components, linearAcceleration);
+        linearAccelerationFilter.filterFloat(linearAcceleration, linearAcceleration);
+        start = PipelineMetrics.record(PipelineMetrics.Stage.FUSION, start);
+        singleData.setAccX(linearAcceleration[0]);
+        singleData.setAccY(linearAcceleration[1]);
+        singleData.setAccZ(linearAcceleration[2]);
+        exporter.writeRecord(singleData, attitude, components);
+        stats.onExported();
+        PipelineMetrics.record(PipelineMetrics.Stage.EXPORT, start);
+        PipelineMetrics.record(PipelineMetrics.Stage.END_TO_END, singleData.getPublishNanos());
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeBoolean(hasOrientation);
+        out.writeBoolean(initState);
+        Checkpoint.writeFloats(out, attitude);
+        Checkpoint.writeFloats(out, measured);
+        gravityFilter.writeState(out);
+        magneticFilter.writeState(out);
+        accelerationFilter.writeState(out);
+        linearAccelerationFilter.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        hasOrientation = in.readBoolean();
+        initState = in.readBoolean();
+        Checkpoint.readFloats(in, attitude);
+        Checkpoint.readFloats(in, measured);
+        gravityFilter.readState(in);
+        magneticFilter.readState(in);
+        accelerationFilter.readState(in);
+        linearAccelerationFilter.readState(in);
+    }
+
+    /**
+     * Gravity in the device frame is the third row of the rotation matrix of q, scaled by g. It is written to gravity
+     * and subtracted from acceleration into result.
+     */
+    static float[] subtractGravity(float[] acceleration, float[] q, float[] gravity, float[] result) {
+        float x = q[0];
+        float y = q[1];
+        float z = q[2];
+        float w = q[3];
+
+        gravity[0] = Constants.GRAVITY_EARTH * 2 * (x * z - y * w);
+        gravity[1] = Constants.GRAVITY_EARTH * 2 * (y * z + x * w);
+        gravity[2] = Constants.GRAVITY_EARTH * (1 - 2 * (x * x + y * y));
+        result[0] = acceleration[0] - gravity[0];
+        result[1] = acceleration[1] - gravity[1];
+        result[2] = acceleration[2] - gravity[2];
+        return result;
+    }
+
+    /**
+     * Hamilton product a * b into result, which must not alias a or b. Composing the quaternions this way matches
+     * multiplying their rotation matrices in the same order.
+     */
+    static float[] multiply(float[] a, float[] b, float[] result) {
+        result[0] = a[3] * b[0] + a[0] * b[3] + a[1] * b[2] - a[2] * b[1];
+        result[1] = a[3] * b[1] - a[0] * b[2] + a[1] * b[3] + a[2] * b[0];
+        result[2] = a[3] * b[2] + a[0] * b[1] - a[1] * b[0] + a[2] * b[3];
+        result[3] = a[3] * b[3] - a[0] * b[0] - a[1] * b[1] - a[2] * b[2];
+        return result;
+    }
+
+    /**
+     * Normalized linear interpolation from a (t = 0) to b (t = 1) along the shorter arc. At t = 0.5, the default
+     * filter coefficient, this is exactly the slerp midpoint.
+     */
+    static float[] nlerp(float[] a, float[] b, float t, float[] result) {
+        float dot = a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+        float s = 1.0f - t;
+        float u = dot < 0 ? -t : t;
+        float x = s * a[0] + u * b[0];
+        float y = s * a[1] + u * b[1];
+        float z = s * a[2] + u * b[2];
+        float w = s * a[3] + u * b[3];
+        float invNorm = 1.0f / (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        result[0] = x * invNorm;
+        result[1] = y * invNorm;
+        result[2] = z * invNorm;
+        result[3] = w * invNorm;
+        return result;
+    }
+
+    /**
+     * Unit quaternion of a proper 3x3 rotation matrix, the inverse of LinearAcceleration.getRotationMatrixFromVector.
+     * The branch on the largest diagonal term keeps the division well conditioned.
+     */
+    static float[] fromRotationMatrix(float[] R, float[] q) {
+        float trace = R[0] + R[4] + R[8];
+        if (trace > 0) {
+            float s = (float) Math.sqrt(trace + 1.0f) * 2; // 4w
+            q[0] = (R[7] - R[5]) / s;
+            q[1] = (R[2] - R[6]) / s;
+            q[2] = (R[3] - R[1]) / s;
+            q[3] = 0.25f * s;
+        } else if (R[0] > R[4] && R[0] > R[8]) {
+            float s = (float) Math.sqrt(1.0f + R[0] - R[4] - R[8]) * 2; // 4x
+            q[0] = 0.25f * s;
+            q[1] = (R[1] + R[3]) / s;
+            q[2] = (R[2] + R[6]) / s;
+            q[3] = (R[7] - R[5]) / s;
+        } else if (R[4] > R[8]) {
+            float s = (float) Math.sqrt(1.0f + R[4] - R[0] - R[8]) * 2; // 4y
+            q[0] = (R[1] + R[3]) / s;
+            q[1] = 0.25f * s;
+            q[2] = (R[5] + R[7]) / s;
+            q[3] = (R[2] - R[6]) / s;
+        } else {
+            float s = (float) Math.sqrt(1.0f + R[8] - R[0] - R[4]) * 2; // 4z
+            q[0] = (R[2] + R[6]) / s;
+            q[1] = (R[5] + R[7]) / s;
+            q[2] = 0.25f * s;
+            q[3] = (R[3] - R[1]) / s;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays another source at the rate it was recorded. The dT column of every sample is added to a running offset,
+ * and next() returns the sample no earlier than replay start + offset / speed. Deadlines are absolute, so time lost
+ * to scheduling jitter or a slow consumer is not accumulated: a late sample is delivered at once and the ones after
+ * it are back on schedule as soon as the replay catches up.
+ *
+ * How late each sample was handed out, relative to its deadline, is recorded; see report(). At MAX_SPEED samples
+ * have no deadline and are only counted.
+ */
+public class RealTimeSensorSource implements SensorSource {
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    // Park until this close to the deadline, then spin, because parking overshoots by tens of microseconds.
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final SensorSource source;
+    private final double speed;
+
+    private long startNanos;
+    private long offsetNanos;
+    private boolean started;
+
+    private long delivered;
+    private long lateCount;
+    private long maxLatenessNanos;
+    private long totalLatenessNanos;
+
+    /**
+     * @param speed replay speed multiplier, e.g. 1 for the recorded rate or 10 for ten times faster; MAX_SPEED does
+     *              not wait at all
+     */
+    public RealTimeSensorSource(SensorSource source, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+        this.source = source;
+        this.speed = speed;
+    }
+
+    // "max" or a multiplier such as "10" or "10x".
+    public static double parseSpeed(String speed) {
+        if ("max".equalsIgnoreCase(speed)) {
+            return MAX_SPEED;
+        }
+        if (speed.endsWith("x") || speed.endsWith("X")) {
+            speed = speed.substring(0, speed.length() - 1);
+        }
+        return Double.parseDouble(speed);
+    }
+
+    @Override
+    public boolean next(SensorSingleData target) throws IOException {
+        if (!source.next(target)) {
+            return false;
+        }
+        if (speed == MAX_SPEED) {
+            delivered++;
+            return true;
+        }
+        if (!started) {
+            startNanos = System.nanoTime();
+            started = true;
+        } else {
+            offsetNanos += Math.max(target.getTimestamp(), 0);
+        }
+
+        long deadline = startNanos + (long) (offsetNanos / speed);
+        long now = awaitDeadline(deadline);
+        record(now - deadline);
+        return true;
+    }
+
+    private long awaitDeadline(long deadline) {
+        long now = System.nanoTime();
+        while (deadline - now > SPIN_NANOS) {
+            LockSupport.parkNanos(deadline - now - SPIN_NANOS);
+            now = System.nanoTime();
+        }
+        while (deadline - now > 0) {
+            now = System.nanoTime();
+        }
+        return now;
+    }
+
+    private void record(long latenessNanos) {
+        delivered++;
+        totalLatenessNanos += latenessNanos;
+        if (latenessNanos > maxLatenessNanos) {
+            maxLatenessNanos = latenessNanos;
+        }
+        if (latenessNanos > LATE_NANOS) {
+            lateCount++;
+        }
+    }
+
+    @Override
+    public long position() {
+        return source.position();
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    // Samples handed out more than a millisecond after their deadline.
+    public long getLateCount() {
+        return lateCount;
+    }
+
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    public long getMeanLatenessNanos() {
+        return delivered == 0 ? 0 : totalLatenessNanos / delivered;
+    }
+
+    public String report() {
+        if (speed == MAX_SPEED) {
+            return String.format("Replayed %d samples at max speed", delivered);
+        }
+        return String.format("Replayed %d samples at %sx: lateness mean %.1f us, max %.1f us, %d later than %d ms",
+                delivered, speed, getMeanLatenessNanos() / 1e3,
+                maxLatenessNanos / 1e3, lateCount, TimeUnit.NANOSECONDS.toMillis(LATE_NANOS));
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,285 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Formats samples as log.dat lines straight into a ByteBuffer, without going through String. Columns are separated by
+ * single spaces and the line ends with '\n'.
+ *
+ * Floats are written with the fewest digits that parse back to the same float, found with Raffaello Giulietti's
+ * Schubfach algorithm ("The Schubfach way to render doubles", 2020), and laid out like Float.toString: plainly for
+ * magnitudes in [10^-3, 10^7), in computerized scientific notation otherwise. The result matches Float.toString from
+ * JDK 19 on; older JDKs occasionally print a digit more.
+ */
+public final class RecordWriter {
+    // Eleven columns: "-2147483648", "-9223372036854775808" and nine floats such as "-1.17549435E-38".
+    public static final int MAX_RECORD_SIZE = 11 + 1 + 20 + 9 * (1 + 15) + 1;
+
+    private static final int P = 24; // float precision, hidden bit included
+    private static final int Q_MIN = -149; // exponent of the smallest subnormal
+    private static final int C_MIN = 1 << (P - 1);
+    private static final int C_TINY = 8; // subnormal significands below this get an extra digit of precision
+    private static final int T_MASK = C_MIN - 1;
+    private static final int BQ_MASK = 0xFF;
+    private static final long MASK_32 = 0xFFFFFFFFL;
+
+    private static final int K_MIN = -45;
+    private static final int K_MAX = 31;
+    // Upper 63 bits of floor(10^-k 2^(125 - floor(log2(10^-k)))) + 1 for k in [K_MIN, K_MAX].
+    private static final long[] G1 = new long[K_MAX - K_MIN + 1];
+
+    private static final int[] POW10 = {
+            1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000
+    };
+
+    static {
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int e = flog2pow10(-k);
+            BigInteger numerator = BigInteger.ONE.shiftLeft(Math.max(0, 125 - e));
+            BigInteger denominator = BigInteger.ONE.shiftLeft(Math.max(0, e - 125));
+            if (k <= 0) {
+                numerator = numerator.multiply(BigInteger.TEN.pow(-k));
+            } else {
+                denominator = denominator.multiply(BigInteger.TEN.pow(k));
+            }
+            BigInteger g = numerator.divide(denominator).add(BigInteger.ONE);
+            G1[k - K_MIN] = g.shiftRight(63).longValue();
+        }
+    }
+
+    private RecordWriter() {
+    }
+
+    /**
+     * Append data as one line. out must have MAX_RECORD_SIZE bytes remaining.
+     */
+    public static void write(SensorSingleData data, ByteBuffer out) {
+        appendLong(out, data.getGeneration());
+        out.put((byte) ' ');
+        appendLong(out, data.getTimestamp());
+        out.put((byte) ' ');
+        appendFloat(out, data.getAccX());
+        out.put((byte) ' ');
+        appendFloat(out, data.getAccY());
+        out.put((byte) ' ');
+        appendFloat(out, data.getAccZ());
+        out.put((byte) ' ');
+        appendFloat(out, data.getGyroX());
+        out.put((byte) ' ');
+        appendFloat(out, data.getGyroY());
+        out.put((byte) ' ');
+        appendFloat(out, data.getGyroZ());
+        out.put((byte) ' ');
+        appendFloat(out, data.getMagnX());
+        out.put((byte) ' ');
+        appendFloat(out, data.getMagnY());
+        out.put((byte) ' ');
+        appendFloat(out, data.getMagnZ());
+        out.put((byte) '\n');
+    }
+
+    public static void appendLong(ByteBuffer out, long v) {
+        if (v < 0) {
+            out.put((byte) '-');
+        } else {
+            v = -v; // work with negative values so that Long.MIN_VALUE needs no special case
+        }
+        int length = 1;
+        for (long rest = v / 10; rest != 0; rest /= 10) {
+            length++;
+        }
+        int start = out.position();
+        for (int i = start + length - 1; i >= start; i--) {
+            out.put(i, (byte) ('0' - v % 10));
+            v /= 10;
+        }
+        out.position(start + length);
+    }
+
+    // The shortest decimal that rounds to v, in the layout of Float.toString.
+    public static void appendFloat(ByteBuffer out, float v) {
+        int bits = Float.floatToRawIntBits(v);
+        int t = bits & T_MASK;
+        int bq = (bits >>> (P - 1)) & BQ_MASK;
+        if (bq == BQ_MASK) {
+            if (t != 0) {
+                appendAscii(out, "NaN");
+            } else {
+                appendAscii(out, bits > 0 ? "Infinity" : "-Infinity");
+            }
+            return;
+        }
+        if (bits < 0) {
+            out.put((byte) '-');
+        }
+        if (bq != 0) {
+            int mq = -Q_MIN + 1 - bq;
+            int c = C_MIN | t;
+            // Integers below 2^24 are their own shortest decimal.
+            if (0 < mq && mq < P) {
+                int f = c >> mq;
+                if (f << mq == c) {
+                    toChars(out, f, 0);
+                    return;
+                }
+            }
+            toDecimal(out, -mq, c, 0);
+        } else if (t != 0) {
+            if (t < C_TINY) {
+                toDecimal(out, Q_MIN, 10 * t, -1);
+            } else {
+                toDecimal(out, Q_MIN, t, 0);
+            }
+        } else {
+            appendAscii(out, "0.0");
+        }
+    }
+
+    /**
+     * Write the shortest decimal in the rounding interval of c 2^q, preferring the one closest to it. dk is -1 when
+     * c was scaled by 10 to give tiny subnormals enough precision.
+     */
+    private static void toDecimal(ByteBuffer out, int q, int c, int dk) {
+        int odd = c & 0x1;
+        long cb = (long) c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        // The interval is asymmetric just above a power of two.
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 33;
+
+        long g = G1[k - K_MIN] + 1;
+
+        int vb = roundToOdd(g, cb << h);
+        int vbl = roundToOdd(g, cbl << h);
+        int vbr = roundToOdd(g, cbr << h);
+
+        int s = vb >> 2;
+        if (s >= 100) {
+            // Try one digit less first.
+            int sp10 = 10 * (int) (s * 1717986919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean upin = vbl + odd <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + odd <= vbr;
+            if (upin != wpin) {
+                toChars(out, upin ? sp10 : tp10, k);
+                return;
+            }
+        }
+        int t = s + 1;
+        boolean uin = vbl + odd <= s << 2;
+        boolean win = (t << 2) + odd <= vbr;
+        if (uin != win) {
+            toChars(out, uin ? s : t, k + dk);
+            return;
+        }
+        long cmp = vb - (s + t << 1);
+        toChars(out, cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk);
+    }
+
+    // Write f 10^e, f > 0, dropping the trailing zeroes of f.
+    private static void toChars(ByteBuffer out, int f, int e) {
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        int length = 1;
+        while (length < POW10.length && f >= POW10[length]) {
+            length++;
+        }
+        int exponent = e + length; // f 10^e = 0.f 10^exponent
+        int start = out.position();
+        if (0 < exponent && exponent <= 7) {
+            if (length <= exponent) {
+                putDigits(out, start, f, length);
+                int position = start + length;
+                for (; position < start + exponent; position++) {
+                    out.put(position, (byte) '0');
+                }
+                out.put(position++, (byte) '.');
+                out.put(position++, (byte) '0');
+                out.position(position);
+            } else {
+                int fraction = length - exponent;
+                putDigits(out, start, f / POW10[fraction], exponent);
+                out.put(start + exponent, (byte) '.');
+                putDigits(out, start + exponent + 1, f % POW10[fraction], fraction);
+                out.position(start + length + 1);
+            }
+        } else if (-3 < exponent && exponent <= 0) {
+            out.put(start, (byte) '0');
+            out.put(start + 1, (byte) '.');
+            int position = start + 2;
+            for (int i = exponent; i < 0; i++) {
+                out.put(position++, (byte) '0');
+            }
+            putDigits(out, position, f, length);
+            out.position(position + length);
+        } else {
+            putDigits(out, start, f / POW10[length - 1], 1);
+            out.put(start + 1, (byte) '.');
+            if (length > 1) {
+                putDigits(out, start + 2, f % POW10[length - 1], length - 1);
+                out.position(start + length + 1);
+            } else {
+                out.put(start + 2, (byte) '0');
+                out.position(start + 3);
+            }
+            out.put((byte) 'E');
+            appendLong(out, exponent - 1);
+        }
+    }
+
+    // The last count digits of value, zero padded, at index at.
+    private static void putDigits(ByteBuffer out, int at, int value, int count) {
+        for (int i = at + count - 1; i >= at; i--) {
+            out.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    private static void appendAscii(ByteBuffer out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    // The upper bits of g cp, with the bits shifted out folded into the lowest one ("round to odd").
+    private static int roundToOdd(long g, long cp) {
+        long x1 = multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+    }
+
+    // High 64 bits of the 128 bit product of two non-negative longs (Math.multiplyHigh needs Java 9).
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >>> 32;
+        long x0 = x & MASK_32;
+        long y1 = y >>> 32;
+        long y0 = y & MASK_32;
+        long t = x1 * y0 + (x0 * y0 >>> 32);
+        long w1 = (t & MASK_32) + x0 * y1;
+        return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+    }
+
+    // floor(e log10(2))
+    private static int flog10pow2(int e) {
+        return (int) (e * 661971961083L >> 41);
+    }
+
+    // floor(log10(3/4 2^e))
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661971961083L - 274743187321L >> 41);
+    }
+
+    // floor(e log2(10))
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring of preallocated samples, in the style of the Disruptor. The producer fills a
+ * slot in place and publishes it by advancing a sequence; a dedicated consumer thread hands every published slot to
+ * the listener and then releases it. The two sides only share two sequence counters, so the hand-off needs no locks
+ * and allocates nothing.
+ */
+public class RingBufferTransport implements SensorTransport {
+    private final SensorSingleData[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    private final Sequence published = new Sequence();
+    private final Sequence consumed = new Sequence();
+    private volatile boolean closed;
+
+    // Producer side only.
+    private long producerSequence = -1;
+    private long cachedConsumed = -1;
+
+    private Thread consumer;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public RingBufferTransport(int capacity, WaitStrategy waitStrategy) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new SensorSingleData[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new SensorSingleData();
+        }
+        mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Start the consumer thread delivering to listener. Must be called once, before the producer publishes.
+     */
+    public void start(final SensorListener listener) {
+        consumer = new Thread("ring-consumer") {
+            public void run() {
+                consume(listener);
+            }
+        };
+        consumer.start();
+    }
+
+    @Override
+    public SensorSingleData claim() {
+        long next = producerSequence + 1;
+        long wrapPoint = next - slots.length;
+        if (wrapPoint > cachedConsumed) {
+            while (wrapPoint > (cachedConsumed = consumed.get())) {
+                waitStrategy.idle();
+            }
+        }
+        return slots[(int) next & mask];
+    }
+
+    @Override
+    public void publish() {
+        producerSequence++;
+        published.lazySet(producerSequence);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // Wait for the consumer thread to deliver everything published before close().
+    public void awaitTermination() throws InterruptedException {
+        consumer.join();
+    }
+
+    // Number of published samples the consumer has not finished with yet.
+    public long size() {
+        return published.get() - consumed.get();
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    private void consume(SensorListener listener) {
+        long next = 0;
+        while (true) {
+            long available = published.get();
+            if (available < next) {
+                if (closed && published.get() < next) {
+                    return;
+                }
+                waitStrategy.idle();
+                continue;
+            }
+            for (long sequence = next; sequence <= available; sequence++) {
+                try {
+                    listener.onSensorUpdate(slots[(int) sequence & mask]);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            consumed.lazySet(available);
+            next = available + 1;
+        }
+    }
+
+    // Sequence counter padded onto its own cache line so producer and consumer do not false-share.
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        private long p1, p2, p3, p4, p5, p6, p7;
+
+        Sequence() {
+            super(-1);
+        }
+    }
+}
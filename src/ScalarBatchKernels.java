@@ -0,0 +1,64 @@
+/**
+ * Reference BatchKernels that run the same float and double operations as LinearAcceleration, so batch output is
+ * bit-identical to the per-sample pipeline.
+ */
+public class ScalarBatchKernels implements BatchKernels {
+    private final float[] gyroscope = new float[3];
+    private final float[] deltaRotationVector = new float[4];
+    private final float[] gravity = new float[3];
+    private final float[] magnetic = new float[3];
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientation = new float[3];
+
+    @Override
+    public void gyroDelta(SensorBlock block, int from, int to) {
+        for (int i = from; i < to; i++) {
+            gyroscope[0] = block.gyroscope[0][i];
+            gyroscope[1] = block.gyroscope[1][i];
+            gyroscope[2] = block.gyroscope[2][i];
+            LinearAcceleration.getRotationVectorFromGyro(gyroscope, block.timeFactor[i], deltaRotationVector);
+            LinearAcceleration.getGravityVector(deltaRotationVector, gravity);
+            for (int axis = 0; axis < 3; axis++) {
+                block.gyroUnit[axis][i] = gyroscope[axis];
+                block.deltaRotation[axis][i] = deltaRotationVector[axis];
+                block.gravity[axis][i] = gravity[axis];
+            }
+            block.deltaRotation[3][i] = deltaRotationVector[3];
+        }
+    }
+
+    @Override
+    public void rotation(SensorBlock block, int from, int to) {
+        for (int i = from; i < to; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                gravity[axis] = block.gravity[axis][i];
+                magnetic[axis] = block.filteredMagnetic[axis][i];
+            }
+            boolean hasRotation = LinearAcceleration.getRotationMatrix(rotationMatrix, null, gravity, magnetic);
+            block.hasRotation[i] = hasRotation;
+            if (hasRotation) {
+                LinearAcceleration.getOrientation(rotationMatrix, orientation);
+                for (int j = 0; j < 9; j++) {
+                    block.rotation[j][i] = rotationMatrix[j];
+                }
+                for (int axis = 0; axis < 3; axis++) {
+                    block.orientation[axis][i] = orientation[axis];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void linearAcceleration(SensorBlock block, int from, int to) {
+        float[] pitch = block.fusedOrientation[1];
+        float[] roll = block.fusedOrientation[2];
+        for (int i = from; i < to; i++) {
+            float x = (float) (Constants.GRAVITY_EARTH * -Math.cos(pitch[i]) * Math.sin(roll[i]));
+            float y = (float) (Constants.GRAVITY_EARTH * -Math.sin(pitch[i]));
+            float z = (float) (Constants.GRAVITY_EARTH * Math.cos(pitch[i]) * Math.cos(roll[i]));
+            block.linearAcceleration[0][i] = block.filteredAcceleration[0][i] - x;
+            block.linearAcceleration[1][i] = block.filteredAcceleration[1][i] - y;
+            block.linearAcceleration[2][i] = block.filteredAcceleration[2][i] - z;
+        }
+    }
+}
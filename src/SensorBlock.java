@@ -0,0 +1,119 @@
+/**
+ * A block of samples stored as primitive columns (struct of arrays) for BatchFusion. The input columns are filled by
+ * the caller; the remaining columns are working and output state written by the fusion stages. Vector columns are
+ * indexed [axis][sample].
+ */
+public class SensorBlock {
+    final int capacity;
+    int size;
+
+    // Input
+    final int[] generation;
+    final long[] timestamp;
+    final float[][] acceleration;
+    final float[][] gyroscope;
+    final float[][] magnetic;
+
+    // Stateless stage 1: gyro delta rotation and the gravity estimate derived from it
+    final float[] timeFactor;
+    final float[][] gyroUnit;
+    final float[][] deltaRotation;
+    final float[][] gravity;
+
+    // Mean filtered inputs
+    final float[][] filteredAcceleration;
+    final float[][] filteredMagnetic;
+
+    // Stateless stage 2: accelerometer/magnetometer rotation matrix and orientation
+    final float[][] rotation;
+    final boolean[] hasRotation;
+    final float[][] orientation;
+
+    // Sequential gyro integration and complementary filter
+    final float[][] fusedOrientation;
+    final boolean[] fused;
+
+    // Output
+    final float[][] linearAcceleration;
+
+    public SensorBlock(int capacity) {
+        this.capacity = capacity;
+        generation = new int[capacity];
+        timestamp = new long[capacity];
+        acceleration = new float[3][capacity];
+        gyroscope = new float[3][capacity];
+        magnetic = new float[3][capacity];
+        timeFactor = new float[capacity];
+        gyroUnit = new float[3][capacity];
+        deltaRotation = new float[4][capacity];
+        gravity = new float[3][capacity];
+        filteredAcceleration = new float[3][capacity];
+        filteredMagnetic = new float[3][capacity];
+        rotation = new float[9][capacity];
+        hasRotation = new boolean[capacity];
+        orientation = new float[3][capacity];
+        fusedOrientation = new float[3][capacity];
+        fused = new boolean[capacity];
+        linearAcceleration = new float[3][capacity];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Append one sample to the input columns.
+    public void add(SensorSingleData data) {
+        int i = size++;
+        generation[i] = data.getGeneration();
+        timestamp[i] = data.getTimestamp();
+        acceleration[0][i] = data.getAccX();
+        acceleration[1][i] = data.getAccY();
+        acceleration[2][i] = data.getAccZ();
+        gyroscope[0][i] = data.getGyroX();
+        gyroscope[1][i] = data.getGyroY();
+        gyroscope[2][i] = data.getGyroZ();
+        magnetic[0][i] = data.getMagnX();
+        magnetic[1][i] = data.getMagnY();
+        magnetic[2][i] = data.getMagnZ();
+    }
+
+    // True if sample i reached the linear acceleration stage, i.e. LinearAcceleration would have exported it.
+    public boolean isFused(int i) {
+        return fused[i];
+    }
+
+    public float getLinearAcceleration(int axis, int i) {
+        return linearAcceleration[axis][i];
+    }
+
+    /**
+     * Copy sample i into target the way LinearAcceleration exports it: the input sample with the accelerometer
+     * columns replaced by the linear acceleration.
+     */
+    public SensorSingleData toExport(int i, SensorSingleData target) {
+        target.setGeneration(generation[i]);
+        target.setTimestamp(timestamp[i]);
+        target.setAccX(linearAcceleration[0][i]);
+        target.setAccY(linearAcceleration[1][i]);
+        target.setAccZ(linearAcceleration[2][i]);
+        target.setGyroX(gyroscope[0][i]);
+        target.setGyroY(gyroscope[1][i]);
+        target.setGyroZ(gyroscope[2][i]);
+        target.setMagnX(magnetic[0][i]);
+        target.setMagnY(magnetic[1][i]);
+        target.setMagnZ(magnetic[2][i]);
+        return target;
+    }
+}
@@ -1,61 +1,58 @@
 import com.google.common.eventbus.EventBus;
 
-import java.util.List;
+import java.io.IOException;
 
 public class SensorDataFactory {
 
-    private List<String> sensorDataLines;
-    private EventBus bus;
+    private SensorSource source;
+    private SensorTransport transport;
+    private final PipelineStats stats = PipelineStats.getInstance();
 
-    private final long SLEEP_TIME = 1000;
+    public SensorDataFactory() throws IOException {
+        this(new Importer().openSource(), createBusTransport());
+    }
 
-    public SensorDataFactory() {
-        Importer importer = new Importer();
-        sensorDataLines = importer.readData();
-        registerBus();
+    public SensorDataFactory(SensorSource source, SensorTransport transport) {
+        this.source = source;
+        this.transport = transport;
+        PipelineStats.register();
         startFactory();
     }
 
-    private void registerBus() {
-        bus = BusProvider.getInstance();
+    private static SensorTransport createBusTransport() {
+        EventBus bus = BusProvider.getInstance();
+        return new EventBusTransport(bus);
     }
 
     private void startFactory() {
         Thread thread = new Thread() {
             public void run() {
-                for (String string : sensorDataLines) {
-                    SensorSingleData sensorSingleData = proccessLine(string);
-                    bus.post(sensorSingleData);
-
-                    // Simulate GPS intervals
-                    // pauseThread(SLEEP_TIME);
+                try {
+                    while (true) {
+                        SensorSingleData data = transport.claim();
+                        long start = PipelineMetrics.start();
+                        if (!source.next(data)) {
+                            break;
+                        }
+                        data.setPublishNanos(PipelineMetrics.record(PipelineMetrics.Stage.SOURCE, start));
+                        stats.onIngested();
+                        transport.publish();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    transport.close();
+                    closeSource();
                 }
             }
         };
         thread.start();
     }
 
-    private SensorSingleData proccessLine(String sensorLine) {
-        String[] sensorParts = sensorLine.split(" ");
-        return new SensorSingleData(
-                Integer.valueOf(sensorParts[0]),
-                Long.valueOf(sensorParts[1]),
-                Float.valueOf(sensorParts[2]),
-                Float.valueOf(sensorParts[3]),
-                Float.valueOf(sensorParts[4]),
-                Float.valueOf(sensorParts[5]),
-                Float.valueOf(sensorParts[6]),
-                Float.valueOf(sensorParts[7]),
-                Float.valueOf(sensorParts[8]),
-                Float.valueOf(sensorParts[9]),
-                Float.valueOf(sensorParts[10])
-        );
-    }
-
-    private void pauseThread(long sleepTime) {
+    private void closeSource() {
         try {
-            Thread.sleep(sleepTime);
-        } catch (InterruptedException e) {
+            source.close();
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -0,0 +1,13 @@
+/**
+ * Smooths a stream of multi-axis samples, such as the three axes of one sensor. An instance keeps the history of one
+ * stream and is not thread safe; the history is what writeState saves.
+ */
+public interface SensorFilter extends Checkpointable {
+    /**
+     * Push one sample per axis and write the filtered values into out, which may be data itself.
+     */
+    float[] filterFloat(float[] data, float[] out);
+
+    // Forget the history; the next sample starts the stream again.
+    void reset();
+}
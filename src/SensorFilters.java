@@ -0,0 +1,97 @@
+import java.util.Locale;
+
+/**
+ * Which SensorFilter smooths each channel of the fusion. Every channel defaults to a MeanFilter of window 10. A filter
+ * is given as a spec:
+ * <pre>
+ * mean:N          MeanFilter with a window of N samples
+ * median:N        MedianFilter with a window of N samples, for spiky input such as the magnetometer
+ * lowpass:ALPHA   LowPassFilter with the smoothing factor ALPHA
+ * lowpass~N       LowPassFilter with the same average delay as mean:N
+ * none            PassThroughFilter
+ * </pre>
+ * and a whole configuration as comma separated channel=spec pairs, e.g. "gravity=lowpass:0.2,linear_acceleration=none";
+ * the channel "all" sets every channel.
+ */
+public class SensorFilters {
+    public static final String DEFAULT_SPEC = "mean:10";
+
+    public enum Channel {
+        GRAVITY, MAGNETIC, ACCELERATION, LINEAR_ACCELERATION
+    }
+
+    private final String[] specs = new String[Channel.values().length];
+
+    public SensorFilters() {
+        for (Channel channel : Channel.values()) {
+            specs[channel.ordinal()] = DEFAULT_SPEC;
+        }
+    }
+
+    public static SensorFilters parse(String configuration) {
+        SensorFilters filters = new SensorFilters();
+        for (String pair : configuration.split(",")) {
+            String[] parts = pair.trim().split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected channel=spec: " + pair);
+            }
+            String channel = parts[0].trim().toUpperCase(Locale.ROOT);
+            if ("ALL".equals(channel)) {
+                for (Channel each : Channel.values()) {
+                    filters.set(each, parts[1].trim());
+                }
+            } else {
+                filters.set(Channel.valueOf(channel), parts[1].trim());
+            }
+        }
+        return filters;
+    }
+
+    public SensorFilters set(Channel channel, String spec) {
+        createFilter(spec); // validate now rather than when the engine is built
+        specs[channel.ordinal()] = spec;
+        return this;
+    }
+
+    public String get(Channel channel) {
+        return specs[channel.ordinal()];
+    }
+
+    // A new filter for the channel; every engine needs its own instances.
+    public SensorFilter create(Channel channel) {
+        return createFilter(specs[channel.ordinal()]);
+    }
+
+    public static SensorFilter createFilter(String spec) {
+        try {
+            if ("none".equals(spec)) {
+                return new PassThroughFilter();
+            } else if (spec.startsWith("mean:")) {
+                MeanFilter filter = new MeanFilter();
+                filter.setWindowSize(Integer.parseInt(spec.substring("mean:".length())));
+                return filter;
+            } else if (spec.startsWith("median:")) {
+                return new MedianFilter(Integer.parseInt(spec.substring("median:".length())));
+            } else if (spec.startsWith("lowpass:")) {
+                return new LowPassFilter(Float.parseFloat(spec.substring("lowpass:".length())));
+            } else if (spec.startsWith("lowpass~")) {
+                return LowPassFilter.forWindow(Integer.parseInt(spec.substring("lowpass~".length())));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid filter spec: " + spec, e);
+        }
+        throw new IllegalArgumentException("Unknown filter spec: " + spec);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Channel channel : Channel.values()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(channel.name().toLowerCase(Locale.ROOT)).append('=').append(specs[channel.ordinal()]);
+        }
+        return builder.toString();
+    }
+}
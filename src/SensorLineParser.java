@@ -0,0 +1,265 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the whitespace separated "No dT accX accY accZ gyroX gyroY gyroZ magX magY magZ" line format straight from a
+ * ByteBuffer into a SensorSingleData, without creating substrings or boxed values. Columns may be separated by any run
+ * of spaces or tabs.
+ *
+ * Floats are read into a 19 digit mantissa and scaled in double precision. That result is within a couple of double
+ * ulps of the exact decimal value, so rounding it to float gives the same answer as Float.parseFloat unless it lies
+ * right next to a float rounding boundary. Those rare tokens, exponents outside the exact power-of-ten table and
+ * subnormal results fall back to Float.parseFloat.
+ */
+public class SensorLineParser {
+    public static final int COLUMNS = 11;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_MANTISSA_DIGITS = 19;
+    private static final long FLOAT_HALFWAY = 1L << 28; // bit pattern of a float midpoint in the dropped double bits
+    private static final long DROPPED_BITS_MASK = (1L << 29) - 1;
+    private static final long HALFWAY_MARGIN = 8;
+
+    private ByteBuffer buffer;
+    private int position;
+    private int end;
+    private int tokenStart;
+    private int column;
+
+    /**
+     * Parse the current line of the cursor into target.
+     *
+     * @throws MalformedLineException carrying the line number and file offset of the offending column
+     */
+    public SensorSingleData parse(LineCursor cursor, SensorSingleData target) {
+        try {
+            return parse(cursor.buffer(), cursor.lineStart(), cursor.lineEnd(), target);
+        } catch (MalformedLineException e) {
+            throw new MalformedLineException(e.getReason(), cursor.lineNumber(),
+                    cursor.lineOffset() + (e.getOffset() - cursor.lineStart()), e.getColumn());
+        }
+    }
+
+    /**
+     * Parse the bytes in [start, end) of buffer into target. Offsets reported by a MalformedLineException are
+     * indices into buffer.
+     */
+    public SensorSingleData parse(ByteBuffer buffer, int start, int end, SensorSingleData target) {
+        this.buffer = buffer;
+        this.position = start;
+        this.end = end;
+        this.column = 0;
+
+        target.setGeneration((int) nextLong(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        target.setTimestamp(nextLong(Long.MIN_VALUE, Long.MAX_VALUE));
+        target.setAccX(nextFloat());
+        target.setAccY(nextFloat());
+        target.setAccZ(nextFloat());
+        target.setGyroX(nextFloat());
+        target.setGyroY(nextFloat());
+        target.setGyroZ(nextFloat());
+        target.setMagnX(nextFloat());
+        target.setMagnY(nextFloat());
+        target.setMagnZ(nextFloat());
+
+        skipWhitespace();
+        if (position < end) {
+            throw malformed("expected " + COLUMNS + " columns", position);
+        }
+        this.buffer = null;
+        return target;
+    }
+
+    private void nextToken() {
+        skipWhitespace();
+        if (position >= end) {
+            throw malformed("expected " + COLUMNS + " columns, found " + column, position);
+        }
+        tokenStart = position;
+        while (position < end && !isWhitespace(buffer.get(position))) {
+            position++;
+        }
+        column++;
+    }
+
+    private long nextLong(long min, long max) {
+        nextToken();
+        int i = tokenStart;
+        boolean negative = false;
+        byte b = buffer.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+        if (i == position || position - i > 18) {
+            throw malformed("invalid integer", tokenStart);
+        }
+        long value = 0;
+        for (; i < position; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw malformed("invalid integer", tokenStart);
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < min || value > max) {
+            throw malformed("integer out of range", tokenStart);
+        }
+        return value;
+    }
+
+    private float nextFloat() {
+        nextToken();
+        int i = tokenStart;
+        boolean negative = false;
+        byte b = buffer.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        for (; i < position; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            anyDigit = true;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + digit;
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+            }
+        }
+        if (i < position && buffer.get(i) == '.') {
+            for (i++; i < position; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                anyDigit = true;
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + digit;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                }
+            }
+        }
+        if (!anyDigit) {
+            // NaN, Infinity and anything else unusual.
+            return slowFloat();
+        }
+        if (i < position && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < position && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            if (i == position) {
+                throw malformed("invalid float", tokenStart);
+            }
+            int value = 0;
+            for (; i < position; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw malformed("invalid float", tokenStart);
+                }
+                if (value < 10000) {
+                    value = value * 10 + digit;
+                }
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != position) {
+            return slowFloat();
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0f : 0.0f;
+        }
+        if (exponent < -22 || exponent > 22) {
+            return slowFloat();
+        }
+        double value = exponent < 0 ? (double) mantissa / POW10[-exponent] : (double) mantissa * POW10[exponent];
+        long dropped = Double.doubleToRawLongBits(value) & DROPPED_BITS_MASK;
+        if (Math.abs(dropped - FLOAT_HALFWAY) <= HALFWAY_MARGIN || value < Float.MIN_NORMAL) {
+            return slowFloat();
+        }
+        float result = (float) value;
+        return negative ? -result : result;
+    }
+
+    private float slowFloat() {
+        char[] chars = new char[position - tokenStart];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) buffer.get(tokenStart + i);
+        }
+        try {
+            return Float.parseFloat(new String(chars));
+        } catch (NumberFormatException e) {
+            throw malformed("invalid float", tokenStart);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(buffer.get(position))) {
+            position++;
+        }
+    }
+
+    private MalformedLineException malformed(String reason, int offset) {
+        return new MalformedLineException(reason, -1, offset, Math.max(column, 1));
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    public static class MalformedLineException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private final String reason;
+        private final long lineNumber;
+        private final long offset;
+        private final int column;
+
+        public MalformedLineException(String reason, long lineNumber, long offset, int column) {
+            super((lineNumber > 0 ? "Line " + lineNumber + ", " : "") + "column " + column + " at offset " + offset
+                    + ": " + reason);
+            this.reason = reason;
+            this.lineNumber = lineNumber;
+            this.offset = offset;
+            this.column = column;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        // 1-based line number, or -1 when parsing a bare buffer.
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        // 1-based column that failed to parse.
+        public int getColumn() {
+            return column;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Receives samples from a SensorTransport.
+ */
+public interface SensorListener {
+    void onSensorUpdate(SensorSingleData singleData);
+}
@@ -0,0 +1,585 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking ingestion of live sensor streams over TCP and UDP. One selector thread accepts connections, reads
+ * whatever has arrived on any of them and publishes every complete sample to a SensorTransport, so it is the
+ * transport's single producer. The framing is that of the files:
+ * <ul>
+ * <li>a TCP connection carries a log.dat text stream, or a BinarySensorLog stream if it starts with the binary
+ * header; an unterminated last line counts once the connection closes;</li>
+ * <li>a UDP datagram holds whole text lines, or the "SFLG" magic followed by whole 48 byte binary records.</li>
+ * </ul>
+ * Reads go into direct buffers from a BufferPool, and a connection only keeps its buffer while an incomplete record
+ * is left in it, so idle connections hold no buffer. When the transport is full, claim blocks the selector thread
+ * and TCP flow control slows the senders down; datagrams arriving meanwhile may be dropped by the kernel.
+ *
+ * Every sample is tagged with the id of the device that sent it: a number per TCP connection and per UDP source
+ * address, in order of first contact. The identity is that of the connection, not of the hardware behind it: a
+ * device that reconnects, or whose UDP address has been silent for the device timeout, comes back under a new id and
+ * starts fusing from scratch. With a ShardedFusion transport the engine of a device is dropped when its connection
+ * closes or its address expires.
+ *
+ * Usage: SensorServer [-p tcpPort] [-u udpPort] [-i idleSeconds] [-d deviceSeconds] [-w workers] [-q | -k] [-f]
+ *                     [-F filters] [-O format]
+ *
+ * fuses everything received into new_log.dat, in arrival order through one engine, until the process is stopped or
+ * nothing has arrived for idleSeconds. With -w each device gets an engine of its own on one of that many ShardedFusion
+ * workers, which write new_log-0.dat, new_log-1.dat and so on. -d sets the device timeout of UDP addresses, 60
+ * seconds by default. LoadGenerator sends captures to it.
+ */
+public class SensorServer {
+    public static final int DEFAULT_PORT = 5600;
+    public static final long DEFAULT_DEVICE_TIMEOUT_MS = 60000;
+    // Also the longest text line and the largest datagram.
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_IDLE_BUFFERS = 256;
+    private static final int RING_CAPACITY = 1024;
+    // Pending connections the kernel queues before they are accepted (capped by net.core.somaxconn); the default of
+    // 50 drops the handshakes of bursts of devices connecting at once.
+    private static final int ACCEPT_BACKLOG = 4096;
+    // Asked for, the kernel may grant less; absorbs bursts while the selector thread waits on the transport.
+    private static final int UDP_RECEIVE_BUFFER = 4 << 20;
+
+    private static final int UNKNOWN = 0;
+    private static final int TEXT = 1;
+    private static final int BINARY = 2;
+
+    private final SensorTransport transport;
+    private final Selector selector;
+    private final BufferPool pool = new BufferPool(BUFFER_SIZE, MAX_IDLE_BUFFERS);
+    private final SensorLineParser parser = new SensorLineParser();
+    private final PipelineStats stats = PipelineStats.getInstance();
+    private final Connection datagram = new Connection(null, null, 0);
+    // In access order, so the senders silent the longest come first.
+    private final Map<SocketAddress, UdpDevice> udpDevices = new LinkedHashMap<SocketAddress, UdpDevice>(16, 0.75f,
+            true);
+    private final ShardedFusion sharded; // null unless the transport keeps an engine per device
+
+    private ServerSocketChannel tcp;
+    private DatagramChannel udp;
+    private long idleTimeoutMs;
+    private long deviceTimeoutMs = DEFAULT_DEVICE_TIMEOUT_MS;
+    private Thread thread;
+    private volatile boolean stopped;
+
+    // Written by the selector thread only.
+    private int nextDevice;
+    private volatile long accepted;
+    private volatile int open;
+    private volatile long samples;
+    private volatile long datagrams;
+    private volatile long rejected;
+
+    public SensorServer(SensorTransport transport) throws IOException {
+        this(transport, null);
+    }
+
+    // Also ends the device of every connection that closes and every UDP address that expires.
+    public SensorServer(ShardedFusion transport) throws IOException {
+        this(transport, transport);
+    }
+
+    private SensorServer(SensorTransport transport, ShardedFusion sharded) throws IOException {
+        this.transport = transport;
+        this.sharded = sharded;
+        selector = Selector.open();
+    }
+
+    // Listen for TCP connections; returns the address bound, with the actual port if port 0 was asked for.
+    public InetSocketAddress bindTcp(InetSocketAddress address) throws IOException {
+        tcp = ServerSocketChannel.open();
+        tcp.bind(address, ACCEPT_BACKLOG);
+        tcp.configureBlocking(false);
+        tcp.register(selector, SelectionKey.OP_ACCEPT);
+        return (InetSocketAddress) tcp.getLocalAddress();
+    }
+
+    public InetSocketAddress bindUdp(InetSocketAddress address) throws IOException {
+        udp = DatagramChannel.open();
+        udp.setOption(StandardSocketOptions.SO_RCVBUF, UDP_RECEIVE_BUFFER);
+        udp.bind(address);
+        udp.configureBlocking(false);
+        udp.register(selector, SelectionKey.OP_READ);
+        return (InetSocketAddress) udp.getLocalAddress();
+    }
+
+    // Stop after this long without receiving anything; 0, the default, serves until stop().
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        idleTimeoutMs = unit.toMillis(timeout);
+    }
+
+    // Forget a UDP source address, ending its device, after this long without a datagram from it.
+    public void setDeviceTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Device timeout must be positive: " + timeout);
+        }
+        deviceTimeoutMs = unit.toMillis(timeout);
+    }
+
+    public void start() {
+        thread = new Thread("sensor-server") {
+            public void run() {
+                serve();
+            }
+        };
+        thread.start();
+    }
+
+    // Close every channel and the transport; samples already published are still delivered.
+    public void stop() throws InterruptedException {
+        stopped = true;
+        selector.wakeup();
+        awaitTermination();
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        thread.join();
+    }
+
+    public long getConnectionsAccepted() {
+        return accepted;
+    }
+
+    public int getOpenConnections() {
+        return open;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getDatagrams() {
+        return datagrams;
+    }
+
+    // Connections and datagrams dropped for bad framing.
+    public long getRejected() {
+        return rejected;
+    }
+
+    public String report() {
+        return String.format("Received %d samples over %d connections and %d datagrams, %d rejected, %d buffers",
+                samples, accepted, datagrams, rejected, pool.getAllocated());
+    }
+
+    private void serve() {
+        long lastActivity = System.currentTimeMillis();
+        try {
+            while (!stopped) {
+                long wait = idleTimeoutMs > 0 ? Math.max(1, idleTimeoutMs / 4) : 0;
+                if (!udpDevices.isEmpty()) {
+                    long sweep = Math.max(1, deviceTimeoutMs / 4);
+                    wait = wait == 0 ? sweep : Math.min(wait, sweep);
+                }
+                int ready = selector.select(wait);
+                long now = System.currentTimeMillis();
+                expireUdpDevices(now);
+                if (ready == 0) {
+                    if (idleTimeoutMs > 0 && now - lastActivity >= idleTimeoutMs) {
+                        break;
+                    }
+                    continue;
+                }
+                lastActivity = now;
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == udp) {
+                        receive(now);
+                    } else {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeAll();
+            transport.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = tcp.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel, channel.getRemoteAddress(),
+                    nextDevice++));
+            accepted++;
+            open++;
+        }
+    }
+
+    private void read(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        if (connection.buffer == null) {
+            connection.buffer = pool.acquire();
+        }
+        int read;
+        try {
+            read = connection.channel.read(connection.buffer);
+        } catch (IOException e) {
+            System.err.println(connection.remote + ": " + e.getMessage());
+            close(key, connection);
+            return;
+        }
+        if (!decode(connection, read < 0) || read < 0) {
+            close(key, connection);
+        } else if (connection.buffer.position() == 0) {
+            pool.release(connection.buffer);
+            connection.buffer = null;
+        }
+    }
+
+    /**
+     * Publish the complete records at the front of the connection's buffer and move the rest to the front.
+     *
+     * @return false if the connection has to be dropped
+     */
+    private boolean decode(Connection connection, boolean endOfStream) {
+        ByteBuffer buffer = connection.buffer;
+        int limit = buffer.position();
+        int start = 0;
+        if (connection.framing == UNKNOWN) {
+            if (limit < 4 && !endOfStream) {
+                return true;
+            }
+            connection.framing = limit >= 4 && buffer.getInt(0) == BinarySensorLog.MAGIC ? BINARY : TEXT;
+        }
+
+        if (connection.framing == BINARY) {
+            if (!connection.headerRead) {
+                if (limit < BinarySensorLog.HEADER_SIZE) {
+                    return !endOfStream || reject(connection, "connection closed inside the header");
+                }
+                if (buffer.getInt(4) != BinarySensorLog.VERSION
+                        || buffer.getInt(8) != BinarySensorLog.RECORD_SIZE) {
+                    return reject(connection, "unsupported binary version " + buffer.getInt(4));
+                }
+                start = BinarySensorLog.HEADER_SIZE;
+                connection.headerRead = true;
+            }
+            for (; limit - start >= BinarySensorLog.RECORD_SIZE; start += BinarySensorLog.RECORD_SIZE) {
+                SensorSingleData data = transport.claim();
+                long begin = PipelineMetrics.start();
+                BinarySensorLog.readRecord(buffer, start, data);
+                publish(connection, data, begin);
+            }
+            if (endOfStream && start < limit) {
+                return reject(connection, "connection closed inside a record");
+            }
+        } else {
+            start = publishLines(connection, buffer, 0, connection.scan, limit, endOfStream);
+            connection.scan = limit;
+            if (start == 0 && limit == buffer.capacity()) {
+                return reject(connection, "line longer than " + buffer.capacity() + " bytes");
+            }
+        }
+
+        if (start > 0) {
+            buffer.limit(limit).position(start);
+            buffer.compact();
+            connection.offset += start;
+            connection.scan -= start;
+        }
+        return true;
+    }
+
+    /**
+     * Publish every line in [start, limit) of buffer that ends with a newline, and what follows the last newline too
+     * if last is set. The search for the first newline begins at scan.
+     *
+     * @return the index of the first byte not published
+     */
+    private int publishLines(Connection origin, ByteBuffer buffer, int start, int scan, int limit, boolean last) {
+        for (int i = scan; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                publishLine(origin, buffer, start, i);
+                start = i + 1;
+            }
+        }
+        if (last && start < limit) {
+            publishLine(origin, buffer, start, limit);
+            start = limit;
+        }
+        return start;
+    }
+
+    private void publishLine(Connection origin, ByteBuffer buffer, int from, int to) {
+        origin.lines++;
+        if (isBlank(buffer, from, to)) {
+            return;
+        }
+        SensorSingleData data = transport.claim();
+        long begin = PipelineMetrics.start();
+        try {
+            parser.parse(buffer, from, to, data);
+        } catch (SensorLineParser.MalformedLineException e) {
+            stats.onMalformed();
+            System.err.println(origin.remote + ": " + new SensorLineParser.MalformedLineException(e.getReason(),
+                    origin.lines, origin.offset + e.getOffset(), e.getColumn()).getMessage());
+            return;
+        }
+        publish(origin, data, begin);
+    }
+
+    private void publish(Connection origin, SensorSingleData data, long begin) {
+        data.setDeviceId(origin.device);
+        data.setPublishNanos(PipelineMetrics.record(PipelineMetrics.Stage.SOURCE, begin));
+        stats.onIngested();
+        transport.publish();
+        samples++;
+    }
+
+    private void receive(long now) throws IOException {
+        ByteBuffer buffer = pool.acquire();
+        try {
+            SocketAddress sender;
+            while ((sender = udp.receive(buffer)) != null) {
+                datagrams++;
+                datagram.remote = sender;
+                datagram.device = deviceOf(sender, now);
+                datagram.lines = 0;
+                decodeDatagram(buffer);
+                buffer.clear();
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private int deviceOf(SocketAddress sender, long now) {
+        UdpDevice device = udpDevices.get(sender);
+        if (device == null) {
+            device = new UdpDevice(nextDevice++);
+            udpDevices.put(sender, device);
+        }
+        device.lastSeen = now;
+        return device.id;
+    }
+
+    private void expireUdpDevices(long now) {
+        Iterator<UdpDevice> devices = udpDevices.values().iterator();
+        while (devices.hasNext()) {
+            UdpDevice device = devices.next();
+            if (now - device.lastSeen < deviceTimeoutMs) {
+                return;
+            }
+            devices.remove();
+            endDevice(device.id);
+        }
+    }
+
+    private void endDevice(int device) {
+        if (sharded != null) {
+            sharded.endDevice(device);
+        }
+    }
+
+    private void decodeDatagram(ByteBuffer buffer) {
+        int limit = buffer.position();
+        if (limit >= 4 && buffer.getInt(0) == BinarySensorLog.MAGIC) {
+            if ((limit - 4) % BinarySensorLog.RECORD_SIZE != 0) {
+                reject(datagram, "datagram of " + limit + " bytes does not hold whole records");
+                return;
+            }
+            for (int start = 4; start < limit; start += BinarySensorLog.RECORD_SIZE) {
+                SensorSingleData data = transport.claim();
+                long begin = PipelineMetrics.start();
+                BinarySensorLog.readRecord(buffer, start, data);
+                publish(datagram, data, begin);
+            }
+        } else {
+            publishLines(datagram, buffer, 0, 0, limit, true);
+        }
+    }
+
+    private boolean reject(Connection origin, String reason) {
+        rejected++;
+        System.err.println(origin.remote + ": " + reason);
+        return false;
+    }
+
+    private void close(SelectionKey key, Connection connection) {
+        key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (connection.buffer != null) {
+            pool.release(connection.buffer);
+            connection.buffer = null;
+        }
+        endDevice(connection.device);
+        open--;
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() != null) {
+                close(key, (Connection) key.attachment());
+            }
+        }
+        try {
+            if (tcp != null) {
+                tcp.close();
+            }
+            if (udp != null) {
+                udp.close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int tcpPort = DEFAULT_PORT;
+        int udpPort = -1;
+        long idleSeconds = 0;
+        int workers = 0;
+        long deviceSeconds = DEFAULT_DEVICE_TIMEOUT_MS / 1000;
+        boolean quaternion = false;
+        boolean kalman = false;
+        FusionMath math = FusionMath.EXACT;
+        SensorFilters filters = new SensorFilters();
+        ExportFormat format = ExportFormat.TEXT;
+        for (int i = 0; i < args.length; i++) {
+            if ("-p".equals(args[i]) && i + 1 < args.length) {
+                tcpPort = Integer.parseInt(args[++i]);
+            } else if ("-u".equals(args[i]) && i + 1 < args.length) {
+                udpPort = Integer.parseInt(args[++i]);
+            } else if ("-i".equals(args[i]) && i + 1 < args.length) {
+                idleSeconds = Long.parseLong(args[++i]);
+            } else if ("-d".equals(args[i]) && i + 1 < args.length) {
+                deviceSeconds = Long.parseLong(args[++i]);
+            } else if ("-w".equals(args[i]) && i + 1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if ("-q".equals(args[i])) {
+                quaternion = true;
+            } else if ("-k".equals(args[i])) {
+                kalman = true;
+            } else if ("-f".equals(args[i])) {
+                math = FusionMath.FAST;
+            } else if ("-F".equals(args[i]) && i + 1 < args.length) {
+                filters = SensorFilters.parse(args[++i]);
+            } else if ("-O".equals(args[i]) && i + 1 < args.length) {
+                format = FusedLogFormat.parse(args[++i]);
+            } else {
+                workers = -1;
+                break;
+            }
+        }
+        if (workers < 0 || (workers > 0 && format != ExportFormat.TEXT)) {
+            System.err.println("Usage: SensorServer [-p tcpPort] [-u udpPort] [-i idleSeconds] [-d deviceSeconds]"
+                    + " [-w workers] [-q | -k] [-f] [-F filters] [-O format]; -w writes text only");
+            System.exit(1);
+        }
+
+        PipelineStats.register();
+        ShardedFusion.EngineFactory engines = engineFactory(quaternion, kalman, math, filters);
+        SensorTransport transport;
+        Exporter exporter = null;
+        if (workers > 0) {
+            // Workers park rather than yield when idle, to leave their cores to the selector thread and each other.
+            ShardedFusion sharded = new ShardedFusion(Constants.SENSOR_FILE_EXPORT, workers, RING_CAPACITY,
+                    WaitStrategy.PARK);
+            sharded.start(engines);
+            transport = sharded;
+        } else {
+            exporter = new Exporter(Constants.SENSOR_FILE_EXPORT, format);
+            RingBufferTransport ring = new RingBufferTransport(RING_CAPACITY, WaitStrategy.YIELD);
+            ring.start(engines.create(exporter));
+            transport = ring;
+        }
+
+        SensorServer server = exporter == null ? new SensorServer((ShardedFusion) transport)
+                : new SensorServer(transport);
+        System.out.println("TCP on " + server.bindTcp(new InetSocketAddress(tcpPort)));
+        if (udpPort >= 0) {
+            System.out.println("UDP on " + server.bindUdp(new InetSocketAddress(udpPort)));
+        }
+        server.setIdleTimeout(idleSeconds, TimeUnit.SECONDS);
+        server.setDeviceTimeout(deviceSeconds, TimeUnit.SECONDS);
+        server.start();
+        server.awaitTermination();
+        System.out.println(server.report());
+        if (exporter == null) {
+            ShardedFusion sharded = (ShardedFusion) transport;
+            sharded.awaitTermination();
+            System.out.println(sharded.report());
+        } else {
+            ((RingBufferTransport) transport).awaitTermination();
+            exporter.close();
+        }
+    }
+
+    private static ShardedFusion.EngineFactory engineFactory(final boolean quaternion, final boolean kalman,
+                                                             final FusionMath math, final SensorFilters filters) {
+        return new ShardedFusion.EngineFactory() {
+            @Override
+            public SensorListener create(Exporter exporter) {
+                return kalman ? new KalmanFusion(exporter, math, filters)
+                        : quaternion ? new QuaternionFusion(exporter, math, filters)
+                        : new LinearAcceleration(exporter, math, filters);
+            }
+        };
+    }
+
+    private static final class UdpDevice {
+        final int id;
+        long lastSeen;
+
+        UdpDevice(int id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        SocketAddress remote;
+        ByteBuffer buffer; // pooled, held only while it contains an incomplete record
+        int framing = UNKNOWN;
+        boolean headerRead;
+        long offset; // stream offset of buffer[0]
+        int scan; // where the search for the next newline resumes
+        long lines;
+        int device;
+
+        Connection(SocketChannel channel, SocketAddress remote, int device) {
+            this.channel = channel;
+            this.remote = remote;
+            this.device = device;
+        }
+    }
+}
@@ -18,6 +18,13 @@ public class SensorSingleData {
     private float magnY;
     private float magnZ;
 
+    private int deviceId; // Which device sent the sample, for ShardedFusion; not part of the data
+    private boolean endOfDevice; // No data: the device is gone and ShardedFusion drops its engine
+    private long publishNanos; // When the sample was published, for PipelineMetrics; not part of the data
+
+    public SensorSingleData() {
+    }
+
     public SensorSingleData(int generation, long timestamp, float accX, float accY, float accZ,
                             float gyroX, float gyroY, float gyroZ, float magnX, float magnY, float magnZ) {
         this.generation = generation;
@@ -121,9 +128,51 @@ public class SensorSingleData {
         this.magnZ = magnZ;
     }
 
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(int deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public boolean isEndOfDevice() {
+        return endOfDevice;
+    }
+
+    public void setEndOfDevice(boolean endOfDevice) {
+        this.endOfDevice = endOfDevice;
+    }
+
+    public long getPublishNanos() {
+        return publishNanos;
+    }
+
+    public void setPublishNanos(long publishNanos) {
+        this.publishNanos = publishNanos;
+    }
+
+    // Make this sample a copy of other, device id and publish time included.
+    public void copyFrom(SensorSingleData other) {
+        generation = other.generation;
+        timestamp = other.timestamp;
+        accX = other.accX;
+        accY = other.accY;
+        accZ = other.accZ;
+        gyroX = other.gyroX;
+        gyroY = other.gyroY;
+        gyroZ = other.gyroZ;
+        magnX = other.magnX;
+        magnY = other.magnY;
+        magnZ = other.magnZ;
+        deviceId = other.deviceId;
+        endOfDevice = other.endOfDevice;
+        publishNanos = other.publishNanos;
+    }
+
     @Override
     public String toString() {
-        return generation + " " + timestamp + " " + accX + " " + accY + " " + accZ +
+        return generation + " " + timestamp + " " + accX + " " + accY + " " + accZ + " " +
                 gyroX + " " + gyroY + " " + gyroZ + " " + magnX + " " + magnY + " " + magnZ;
     }
 }
@@ -0,0 +1,20 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sequential supply of sensor samples, independent of how they are stored.
+ */
+public interface SensorSource extends Closeable {
+    /**
+     * Read the next sample into target.
+     *
+     * @return false once the source is exhausted
+     */
+    boolean next(SensorSingleData target) throws IOException;
+
+    /**
+     * Where reading resumes after the last sample returned, for Importer.openSource(fileName, position): a byte
+     * offset in a text log, a sample index in a binary one.
+     */
+    long position();
+}
@@ -0,0 +1,13 @@
+/**
+ * Hands samples from the reading thread to the fusion side. The producer claims a sample, fills it in and publishes
+ * it; a claimed sample that is never published is simply dropped. Implementations may reuse the returned instance
+ * once it has been consumed, so listeners must not keep references to it.
+ */
+public interface SensorTransport {
+    SensorSingleData claim();
+
+    void publish();
+
+    // Called by the producer after the last sample; listeners see everything published before it.
+    void close();
+}
@@ -0,0 +1,256 @@
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Fuses the samples of many devices at once, each device with an engine of its own. A sample is routed by a hash of
+ * its device id to one of a fixed number of workers, by default one per core. A worker is the consumer thread of a
+ * RingBufferTransport and alone owns the engines (and so the filters) of its devices and an Exporter, so workers share
+ * no state and take no locks, and the samples of a device are fused in the order they were published. endDevice
+ * tells the worker that a device is gone, after its last sample, and the worker drops the device's engine, so the
+ * memory held is that of the devices currently sending however many come and go.
+ *
+ * ShardedFusion is itself the SensorTransport of one producer such as SensorServer: claim hands out a staging sample
+ * and publish copies it into the ring of its device's worker, blocking while that ring is full. Worker i appends to
+ * the export file name with "-i" before its extension, in the DEVICE_TEXT format, so every line starts with the id of
+ * its device.
+ */
+public class ShardedFusion implements SensorTransport {
+    /**
+     * Makes the engine of a newly seen device, exporting to the exporter of the worker that owns it.
+     */
+    public interface EngineFactory {
+        SensorListener create(Exporter exporter);
+    }
+
+    private final String fileName;
+    private final RingBufferTransport[] rings;
+    private final Worker[] workers;
+    private final SensorSingleData staging = new SensorSingleData();
+
+    public ShardedFusion(String fileName, int ringCapacity, WaitStrategy waitStrategy) {
+        this(fileName, Runtime.getRuntime().availableProcessors(), ringCapacity, waitStrategy);
+    }
+
+    public ShardedFusion(String fileName, int workerCount, int ringCapacity, WaitStrategy waitStrategy) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+        }
+        this.fileName = fileName;
+        rings = new RingBufferTransport[workerCount];
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            rings[i] = new RingBufferTransport(ringCapacity, waitStrategy);
+        }
+    }
+
+    /**
+     * Open the export files and start the workers. Must be called once, before the producer publishes.
+     */
+    public void start(EngineFactory factory) {
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(factory, new Exporter(workerFileName(fileName, i), ExportFormat.DEVICE_TEXT));
+            rings[i].start(workers[i]);
+        }
+    }
+
+    @Override
+    public SensorSingleData claim() {
+        return staging;
+    }
+
+    @Override
+    public void publish() {
+        RingBufferTransport ring = rings[workerOf(staging.getDeviceId())];
+        ring.claim().copyFrom(staging);
+        ring.publish();
+    }
+
+    /**
+     * Drop the engine of device once its worker has fused everything published for it so far. A later sample with
+     * the same id starts a new engine. Called by the producer thread.
+     */
+    public void endDevice(int device) {
+        RingBufferTransport ring = rings[workerOf(device)];
+        SensorSingleData signal = ring.claim();
+        signal.setDeviceId(device);
+        signal.setEndOfDevice(true);
+        ring.publish();
+    }
+
+    @Override
+    public void close() {
+        for (RingBufferTransport ring : rings) {
+            ring.close();
+        }
+    }
+
+    // Wait for the workers to fuse everything published before close(), then close the export files.
+    public void awaitTermination() throws InterruptedException {
+        for (RingBufferTransport ring : rings) {
+            ring.awaitTermination();
+        }
+        for (Worker worker : workers) {
+            worker.exporter.close();
+        }
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    // The worker that fuses the samples of device.
+    public int workerOf(int device) {
+        // Multiply-shift takes the high bits of the hash, DeviceTable indexes with the low ones.
+        return (int) (((mix(device) & 0xFFFFFFFFL) * rings.length) >>> 32);
+    }
+
+    // Devices with an engine, that is seen and not ended.
+    public int getDeviceCount() {
+        int devices = 0;
+        for (Worker worker : workers) {
+            devices += worker.devices;
+        }
+        return devices;
+    }
+
+    public long getEndedDeviceCount() {
+        long ended = 0;
+        for (Worker worker : workers) {
+            ended += worker.ended;
+        }
+        return ended;
+    }
+
+    public String report() {
+        long[] samples = new long[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            samples[i] = workers[i].samples;
+        }
+        return String.format("Fused %d devices (%d ended) on %d workers, samples per worker %s",
+                getDeviceCount() + getEndedDeviceCount(), getEndedDeviceCount(), workers.length,
+                Arrays.toString(samples));
+    }
+
+    // fileName with "-worker" inserted before its extension, if it has one.
+    static String workerFileName(String fileName, int worker) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= fileName.lastIndexOf(File.separatorChar) + 1) {
+            return fileName + "-" + worker;
+        }
+        return fileName.substring(0, dot) + "-" + worker + fileName.substring(dot);
+    }
+
+    // The murmur3 finalizer, so that ids handed out in sequence or with a common stride still spread evenly.
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final class Worker implements SensorListener {
+        final EngineFactory factory;
+        final Exporter exporter;
+        final DeviceTable engines = new DeviceTable();
+
+        // Written by the worker thread only.
+        volatile int devices;
+        volatile long ended;
+        volatile long samples;
+
+        Worker(EngineFactory factory, Exporter exporter) {
+            this.factory = factory;
+            this.exporter = exporter;
+        }
+
+        @Override
+        public void onSensorUpdate(SensorSingleData data) {
+            if (data.isEndOfDevice()) {
+                if (engines.remove(data.getDeviceId())) {
+                    devices--;
+                    ended++;
+                }
+                return;
+            }
+            SensorListener engine = engines.get(data.getDeviceId());
+            if (engine == null) {
+                engine = factory.create(exporter);
+                engines.put(data.getDeviceId(), engine);
+                devices++;
+            }
+            samples++;
+            engine.onSensorUpdate(data);
+        }
+    }
+
+    // Engines by device id, with open addressing so that a lookup does not box the id.
+    private static final class DeviceTable {
+        private int[] ids = new int[16];
+        private SensorListener[] engines = new SensorListener[16];
+        private int size;
+
+        SensorListener get(int id) {
+            int mask = ids.length - 1;
+            for (int i = mix(id) & mask; engines[i] != null; i = (i + 1) & mask) {
+                if (ids[i] == id) {
+                    return engines[i];
+                }
+            }
+            return null;
+        }
+
+        // id must not be in the table yet.
+        void put(int id, SensorListener engine) {
+            if (2 * (size + 1) > ids.length) {
+                int[] oldIds = ids;
+                SensorListener[] oldEngines = engines;
+                ids = new int[oldIds.length * 2];
+                engines = new SensorListener[oldIds.length * 2];
+                for (int i = 0; i < oldIds.length; i++) {
+                    if (oldEngines[i] != null) {
+                        insert(oldIds[i], oldEngines[i]);
+                    }
+                }
+            }
+            insert(id, engine);
+            size++;
+        }
+
+        // Whether id was in the table.
+        boolean remove(int id) {
+            int mask = ids.length - 1;
+            int gap = mix(id) & mask;
+            while (engines[gap] != null && ids[gap] != id) {
+                gap = (gap + 1) & mask;
+            }
+            if (engines[gap] == null) {
+                return false;
+            }
+            engines[gap] = null;
+            size--;
+            // Move later entries of the run back into the gap wherever that keeps them reachable from their home slot.
+            for (int i = (gap + 1) & mask; engines[i] != null; i = (i + 1) & mask) {
+                int home = mix(ids[i]) & mask;
+                if (((i - home) & mask) >= ((i - gap) & mask)) {
+                    ids[gap] = ids[i];
+                    engines[gap] = engines[i];
+                    engines[i] = null;
+                    gap = i;
+                }
+            }
+            return true;
+        }
+
+        private void insert(int id, SensorListener engine) {
+            int mask = ids.length - 1;
+            int i = mix(id) & mask;
+            while (engines[i] != null) {
+                i = (i + 1) & mask;
+            }
+            ids[i] = id;
+            engines[i] = engine;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads samples from the text log.dat format. Malformed lines are reported and skipped.
+ */
+public class TextSensorSource implements SensorSource {
+    private final LineCursor cursor;
+    private final SensorLineParser parser = new SensorLineParser();
+
+    public TextSensorSource(LineCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    public static TextSensorSource open(String fileName) throws IOException {
+        return new TextSensorSource(LineCursor.open(fileName));
+    }
+
+    // Start reading at a byte offset returned by position(), which must be the start of a line.
+    public static TextSensorSource open(String fileName, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(new File(fileName).toPath(), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new TextSensorSource(new LineCursor(channel));
+    }
+
+    @Override
+    public boolean next(SensorSingleData target) throws IOException {
+        while (cursor.next()) {
+            try {
+                parser.parse(cursor, target);
+                return true;
+            } catch (SensorLineParser.MalformedLineException e) {
+                PipelineStats.getInstance().onMalformed();
+                e.printStackTrace();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long position() {
+        return cursor.nextOffset();
+    }
+
+    public LineCursor getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cursor.close();
+    }
+}
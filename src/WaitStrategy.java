@@ -0,0 +1,31 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a RingBufferTransport thread does while the other side has not caught up yet.
+ */
+public enum WaitStrategy {
+    // Lowest latency, burns a full core per waiting thread.
+    BUSY_SPIN {
+        @Override
+        void idle() {
+        }
+    },
+    // Gives the core to other runnable threads between checks.
+    YIELD {
+        @Override
+        void idle() {
+            Thread.yield();
+        }
+    },
+    // Sleeps briefly between checks; cheapest on CPU, adds up to PARK_NANOS of latency.
+    PARK {
+        @Override
+        void idle() {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    };
+
+    private static final long PARK_NANOS = 50000;
+
+    abstract void idle();
+}